@@ -0,0 +1,80 @@
+import java.util.BitSet;
+
+public class BBitSignatureStore {
+    private final int numHashes;
+    private final int bits;
+    private final int slotsPerWord;
+    private final int wordsPerDoc;
+    private final long slotMask;
+    private final long lowBitMask; // Lowest bit of every slot in a word
+    private final long[] words;
+    private final BitSet empty = new BitSet(); // b low bits cannot tell an empty set's slots from real ones
+
+    public BBitSignatureStore(int numDocs, int numHashes, int bits) {
+        if (bits != 1 && bits != 2 && bits != 4 && bits != 8 && bits != 16) {
+            throw new IllegalArgumentException("bits must be 1, 2, 4, 8 or 16: " + bits);
+        }
+        this.numHashes = numHashes;
+        this.bits = bits;
+        this.slotsPerWord = 64 / bits;
+        this.wordsPerDoc = (numHashes + slotsPerWord - 1) / slotsPerWord;
+        this.slotMask = (1L << bits) - 1;
+        long low = 0;
+        for (int i = 0; i < slotsPerWord; i++) {
+            low |= 1L << (i * bits);
+        }
+        this.lowBitMask = low;
+        long totalWords = (long) numDocs * wordsPerDoc;
+        if (totalWords > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Store too large for one array: " + totalWords + " words");
+        }
+        this.words = new long[(int) totalWords];
+    }
+
+    public int bits() {
+        return bits;
+    }
+
+    public long sizeInBytes() {
+        return words.length * 8L;
+    }
+
+    // Keeps the lowest b bits of each slot; padding slots in the last word stay zero
+    public void set(int doc, int[] signature) {
+        empty.set(doc, MinHashEngine.isEmpty(signature));
+        int base = doc * wordsPerDoc;
+        for (int w = 0; w < wordsPerDoc; w++) {
+            long word = 0;
+            int first = w * slotsPerWord;
+            int last = Math.min(first + slotsPerWord, numHashes);
+            for (int i = first; i < last; i++) {
+                word |= (signature[i] & slotMask) << ((i - first) * bits);
+            }
+            words[base + w] = word;
+        }
+    }
+
+    // XOR the packed words, fold each slot's bits down to its lowest bit, popcount the mismatches
+    public int matchCount(int doc1, int doc2) {
+        int base1 = doc1 * wordsPerDoc, base2 = doc2 * wordsPerDoc;
+        int mismatches = 0;
+        for (int w = 0; w < wordsPerDoc; w++) {
+            long x = words[base1 + w] ^ words[base2 + w];
+            for (int shift = bits >>> 1; shift > 0; shift >>>= 1) {
+                x |= x >>> shift;
+            }
+            mismatches += Long.bitCount(x & lowBitMask);
+        }
+        return numHashes - mismatches;
+    }
+
+    // Li & Konig b-bit estimator in the sparse limit: P_b = 2^-b + (1 - 2^-b) * R
+    public double estimateJaccard(int doc1, int doc2) {
+        if (empty.get(doc1) || empty.get(doc2))
+            return 0;
+        double collision = (double) matchCount(doc1, doc2) / numHashes;
+        double chance = 1.0 / (1L << bits);
+        double estimate = (collision - chance) / (1 - chance);
+        return Math.max(0, Math.min(1, estimate));
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+// Open-addressing map from a 64-bit band key to the list of doc ids in that bucket
+public class BandTable {
+    private long[] keys;
+    private int[][] postings; // null marks an empty slot
+    private int[] sizes;
+    private int buckets;
+
+    public BandTable() {
+        this(16);
+    }
+
+    public BandTable(int expectedBuckets) {
+        int capacity = LongHashSet.tableSizeFor(expectedBuckets);
+        keys = new long[capacity];
+        postings = new int[capacity][];
+        sizes = new int[capacity];
+    }
+
+    public int bucketCount() {
+        return buckets;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    public boolean occupied(int slot) {
+        return postings[slot] != null;
+    }
+
+    public long key(int slot) {
+        return keys[slot];
+    }
+
+    public int[] postings(int slot) {
+        return postings[slot];
+    }
+
+    public int postingCount(int slot) {
+        return sizes[slot];
+    }
+
+    // Slot holding the key, or -1 if absent
+    public int find(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) Hashing.mix64(key) & mask;
+        while (postings[slot] != null) {
+            if (keys[slot] == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public void add(long key, int doc) {
+        int mask = keys.length - 1;
+        int slot = (int) Hashing.mix64(key) & mask;
+        while (postings[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (postings[slot] == null) {
+            keys[slot] = key;
+            postings[slot] = new int[2];
+            buckets++;
+        } else if (sizes[slot] == postings[slot].length) {
+            postings[slot] = Arrays.copyOf(postings[slot], sizes[slot] * 2);
+        }
+        postings[slot][sizes[slot]++] = doc;
+        if (buckets * 2 > keys.length)
+            rehash();
+    }
+
+    // Removes one occurrence of doc from the key's bucket; an emptied bucket frees its slot, so churn does
+    // not leave dead keys lengthening probe chains
+    public boolean remove(long key, int doc) {
+        int slot = find(key);
+        if (slot < 0)
+            return false;
+        int[] docs = postings[slot];
+        for (int i = 0; i < sizes[slot]; i++) {
+            if (docs[i] == doc) {
+                docs[i] = docs[--sizes[slot]];
+                if (sizes[slot] == 0)
+                    free(slot);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Backward-shift deletion for linear probing: later entries of the chain move into the hole unless
+    // their home slot lies cyclically in (hole, next], so every key stays reachable without tombstones
+    private void free(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; postings[next] != null; next = (next + 1) & mask) {
+            int home = (int) Hashing.mix64(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                postings[hole] = postings[next];
+                sizes[hole] = sizes[next];
+                hole = next;
+            }
+        }
+        keys[hole] = 0;
+        postings[hole] = null;
+        sizes[hole] = 0;
+        buckets--;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[][] oldPostings = postings;
+        int[] oldSizes = sizes;
+        keys = new long[oldKeys.length * 2];
+        postings = new int[oldKeys.length * 2][];
+        sizes = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldPostings[i] == null || oldSizes[i] == 0)
+                continue;
+            int slot = (int) Hashing.mix64(oldKeys[i]) & mask;
+            while (postings[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            postings[slot] = oldPostings[i];
+            sizes[slot] = oldSizes[i];
+        }
+    }
+}
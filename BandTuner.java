@@ -0,0 +1,163 @@
+import java.util.Arrays;
+
+// Chooses (bands, rows) for a signature budget by integrating the LSH S-curve P(s) = 1 - (1 - s^r)^b
+// against a similarity distribution: a uniform prior by default, or a sampled one from the actual data
+public class BandTuner {
+    private static final int BINS = 1000;
+
+    private final double threshold;
+    private final double maxFalseNegativeRate;
+    private final double maxFalsePositiveRate;
+    private final double costPerBandLookup;
+    private final double costPerCandidate;
+    private final double[] weights = new double[BINS]; // Similarity mass at bin centers (i + 0.5) / BINS
+
+    public static class Config {
+        public final int bands;
+        public final int rows;
+        public final double falseNegativeRate; // Share of pairs with s >= threshold never proposed
+        public final double falsePositiveRate; // Share of pairs with s < threshold proposed anyway
+        public final double candidateRate; // Expected share of the corpus proposed per query
+        public final double cost; // Expected cost of one query, in the units of the cost model
+        public final boolean feasible; // Whether both rate limits hold
+
+        Config(int bands, int rows, double falseNegativeRate, double falsePositiveRate, double candidateRate,
+                double cost, boolean feasible) {
+            this.bands = bands;
+            this.rows = rows;
+            this.falseNegativeRate = falseNegativeRate;
+            this.falsePositiveRate = falsePositiveRate;
+            this.candidateRate = candidateRate;
+            this.cost = cost;
+            this.feasible = feasible;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("b=%d, r=%d (FN %.4f, FP %.4f, candidates %.4f%s)", bands, rows,
+                    falseNegativeRate, falsePositiveRate, candidateRate, feasible ? "" : ", limits not met");
+        }
+    }
+
+    public BandTuner(double threshold, double maxFalseNegativeRate, double maxFalsePositiveRate,
+            double costPerBandLookup, double costPerCandidate) {
+        if (threshold <= 0 || threshold >= 1) {
+            throw new IllegalArgumentException("Threshold must be in (0, 1): " + threshold);
+        }
+        this.threshold = threshold;
+        this.maxFalseNegativeRate = maxFalseNegativeRate;
+        this.maxFalsePositiveRate = maxFalsePositiveRate;
+        this.costPerBandLookup = costPerBandLookup;
+        this.costPerCandidate = costPerCandidate;
+        Arrays.fill(weights, 1);
+    }
+
+    // Replaces the uniform prior with the histogram of observed pair similarities. A side of the
+    // threshold without any samples keeps the uniform prior, so rare similar pairs still constrain recall
+    public BandTuner withSample(double[] similarities) {
+        Arrays.fill(weights, 0);
+        for (double s : similarities) {
+            weights[bin(s)]++;
+        }
+        int split = firstBinAtOrAbove(threshold);
+        if (mass(0, split) == 0)
+            Arrays.fill(weights, 0, split, 1);
+        if (mass(split, BINS) == 0)
+            Arrays.fill(weights, split, BINS, 1);
+        return this;
+    }
+
+    // Stratified form for skewed data, where a random sample holds too few similar pairs to shape the
+    // recall side: the pair population is split into disjoint strata (e.g. the candidates of a loose banding
+    // and everything else), strata[k] is a random sample of stratum k, and each of its pairs stands for
+    // stratumWeights[k] pairs. A side of the threshold without any samples keeps the uniform prior.
+    public BandTuner withStrata(double[][] strata, double[] stratumWeights) {
+        if (strata.length != stratumWeights.length) {
+            throw new IllegalArgumentException(strata.length + " strata but " + stratumWeights.length + " weights");
+        }
+        Arrays.fill(weights, 0);
+        for (int k = 0; k < strata.length; k++) {
+            for (double s : strata[k]) {
+                weights[bin(s)] += stratumWeights[k];
+            }
+        }
+        int split = firstBinAtOrAbove(threshold);
+        if (mass(0, split) == 0)
+            Arrays.fill(weights, 0, split, 1);
+        if (mass(split, BINS) == 0)
+            Arrays.fill(weights, split, BINS, 1);
+        return this;
+    }
+
+    // Probability that a pair with Jaccard s shares a bucket in at least one band
+    public static double probability(double s, int bands, int rows) {
+        return 1 - Math.pow(1 - Math.pow(s, rows), bands);
+    }
+
+    public Config evaluate(int bands, int rows, int corpusSize) {
+        int split = firstBinAtOrAbove(threshold);
+        double missed = 0, proposed = 0, candidates = 0;
+        for (int i = 0; i < BINS; i++) {
+            double p = probability((i + 0.5) / BINS, bands, rows);
+            candidates += weights[i] * p;
+            if (i >= split) {
+                missed += weights[i] * (1 - p);
+            } else {
+                proposed += weights[i] * p;
+            }
+        }
+        double below = mass(0, split), above = mass(split, BINS);
+        // A threshold within half a bin of 0 or 1 leaves one side empty; nothing there can be missed
+        double falseNegativeRate = above == 0 ? 0 : missed / above;
+        double falsePositiveRate = below == 0 ? 0 : proposed / below;
+        double candidateRate = candidates / (below + above);
+        double cost = bands * costPerBandLookup + candidateRate * corpusSize * costPerCandidate;
+        boolean feasible = falseNegativeRate <= maxFalseNegativeRate && falsePositiveRate <= maxFalsePositiveRate;
+        return new Config(bands, rows, falseNegativeRate, falsePositiveRate, candidateRate, cost, feasible);
+    }
+
+    // Cheapest feasible (b, r) with b * r <= numHashes; when no configuration meets both limits,
+    // the one closest to them (recall first), then the cheapest. Never null.
+    public Config tune(int numHashes, int corpusSize) {
+        if (numHashes < 1) {
+            throw new IllegalArgumentException("Need at least one hash function: " + numHashes);
+        }
+        Config best = evaluate(1, 1, corpusSize);
+        double bestViolation = Double.POSITIVE_INFINITY;
+        for (int rows = 1; rows <= numHashes; rows++) {
+            for (int bands = 1; bands * rows <= numHashes; bands++) {
+                Config config = evaluate(bands, rows, corpusSize);
+                double violation = config.feasible ? 0
+                        : 2 * Math.max(0, config.falseNegativeRate - maxFalseNegativeRate)
+                                + Math.max(0, config.falsePositiveRate - maxFalsePositiveRate);
+                if (Double.isNaN(violation))
+                    violation = Double.POSITIVE_INFINITY;
+                if (violation < bestViolation || (violation == bestViolation && config.cost < best.cost)) {
+                    best = config;
+                    bestViolation = violation;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int bin(double s) {
+        return Math.min(BINS - 1, (int) (Math.max(0, s) * BINS));
+    }
+
+    private static int firstBinAtOrAbove(double s) {
+        int bin = 0;
+        while (bin < BINS && (bin + 0.5) / BINS < s) {
+            bin++;
+        }
+        return bin;
+    }
+
+    private double mass(int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += weights[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,167 @@
+import java.util.Arrays;
+
+public final class Banding {
+    private static final Metrics.Timer BANDING = Metrics.timer("banding");
+    private static final Metrics.Timer CANDIDATES = Metrics.timer("candidates");
+    private static final Metrics.Histogram BUCKET_SIZES = Metrics.histogram("banding.bucket_size");
+
+    private Banding() {
+    }
+
+    // Hashes rows [band * rows, (band + 1) * rows) of a signature to a 64-bit bucket key
+    public static long bandKey(int[] signature, int band, int rows) {
+        long h = band;
+        int offset = band * rows;
+        for (int row = 0; row < rows; row++) {
+            h = h * Hashing.ROLL_BASE + (signature[offset + row] & 0xFFFFFFFFL);
+        }
+        return Hashing.mix64(h);
+    }
+
+    // One table per band over docs [from, to)
+    public static BandTable[] buildTables(int[][] signatures, int from, int to, int bands, int rows) {
+        long start = Metrics.now();
+        BandTable[] tables = new BandTable[bands];
+        for (int band = 0; band < bands; band++) {
+            tables[band] = new BandTable(to - from);
+            for (int doc = from; doc < to; doc++) {
+                if (!MinHashEngine.isEmpty(signatures[doc])) // Empty sets would all share one bucket
+                    tables[band].add(bandKey(signatures[doc], band, rows), doc);
+            }
+        }
+        BANDING.record(start, to - from);
+        return tables;
+    }
+
+    // Every pair sharing a bucket in any band, deduplicated as packed (min, max) doc ids
+    public static LongHashSet candidatePairs(BandTable[] tables) {
+        return candidatePairs(tables, null, 0, HotBucketPolicy.UNBOUNDED);
+    }
+
+    // Candidate pairs with oversized buckets handled by the policy. Sub-banding reads its extra rows from
+    // the spare slots past bands * rows (rows inside other bands would only re-find their collisions),
+    // so the signatures need at least extraRows of them
+    public static LongHashSet candidatePairs(BandTable[] tables, int[][] signatures, int rows,
+            HotBucketPolicy policy) {
+        long start = Metrics.now();
+        checkSpareRows(tables.length, signatures, rows, policy);
+        LongHashSet candidatePairs = new LongHashSet();
+        for (int band = 0; band < tables.length; band++) {
+            addCandidatePairs(tables, band, signatures, rows, policy, candidatePairs);
+        }
+        CANDIDATES.record(start, candidatePairs.size());
+        return candidatePairs;
+    }
+
+    static void checkSpareRows(int bands, int[][] signatures, int rows, HotBucketPolicy policy) {
+        if (policy.mode() != HotBucketPolicy.Mode.SUB_BAND)
+            return;
+        for (int[] signature : signatures) {
+            if (signature != null && signature.length - bands * rows < policy.extraRows()) {
+                throw new IllegalArgumentException("Sub-banding needs " + policy.extraRows()
+                        + " spare slots, signature has " + (signature.length - bands * rows)
+                        + " beyond " + bands + " x " + rows);
+            }
+        }
+    }
+
+    static void addCandidatePairs(BandTable[] tables, int band, int[][] signatures, int rows, HotBucketPolicy policy,
+            LongHashSet candidatePairs) {
+        BandTable table = tables[band];
+        // Buffered per band and merged once, so ParallelPipeline's band workers don't contend on the
+        // shared histogram's counters
+        Metrics.Histogram.Local bucketSizes = BUCKET_SIZES.local();
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            int size = table.postingCount(slot);
+            if (size > 0)
+                bucketSizes.record(size);
+            if (size < 2)
+                continue;
+            int[] docs = table.postings(slot);
+            if (size <= policy.maxBucket()) {
+                addAllPairs(docs, size, candidatePairs);
+                continue;
+            }
+            switch (policy.mode()) {
+                case CAP:
+                    break;
+                case SAMPLE:
+                    addSampledPairs(docs, size, table.key(slot), policy, candidatePairs);
+                    break;
+                case SUB_BAND:
+                    addSubBandPairs(docs, size, table.key(slot), band, tables.length * rows, signatures, policy,
+                            candidatePairs);
+                    break;
+                case UNBOUNDED:
+                default:
+                    addAllPairs(docs, size, candidatePairs);
+            }
+        }
+        bucketSizes.flush();
+    }
+
+    private static void addAllPairs(int[] docs, int size, LongHashSet candidatePairs) {
+        for (int i = 0; i < size; i++) {
+            for (int j = i + 1; j < size; j++) {
+                candidatePairs.add(pair(docs[i], docs[j]));
+            }
+        }
+    }
+
+    // Pairs the maxBucket docs with the smallest hash of (bucket key, doc), so the choice is deterministic
+    // per seed and independent of insertion order
+    private static void addSampledPairs(int[] docs, int size, long key, HotBucketPolicy policy,
+            LongHashSet candidatePairs) {
+        long[] ranked = new long[size];
+        for (int i = 0; i < size; i++) {
+            long h = Hashing.mix64(key ^ Hashing.mix64(docs[i] ^ policy.seed()));
+            ranked[i] = (h & 0xFFFFFFFF00000000L) | (docs[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(ranked);
+        int[] sample = new int[policy.maxBucket()];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = (int) ranked[i];
+        }
+        addAllPairs(sample, sample.length, candidatePairs);
+    }
+
+    // Re-buckets the docs by extraRows spare signature rows (an AND with a longer band), then pairs
+    // within sub-buckets, sampling those still over the limit. Bands rotate through the spare slots.
+    private static void addSubBandPairs(int[] docs, int size, long key, int band, int bandedSlots,
+            int[][] signatures, HotBucketPolicy policy, LongHashSet candidatePairs) {
+        BandTable subTable = new BandTable(size);
+        for (int i = 0; i < size; i++) {
+            int[] signature = signatures[docs[i]];
+            int spare = signature.length - bandedSlots;
+            long h = key;
+            for (int e = 0; e < policy.extraRows(); e++) {
+                int slot = bandedSlots + (band * policy.extraRows() + e) % spare;
+                h = h * Hashing.ROLL_BASE + (signature[slot] & 0xFFFFFFFFL);
+            }
+            subTable.add(Hashing.mix64(h), docs[i]);
+        }
+        for (int slot = 0; slot < subTable.capacity(); slot++) {
+            int subSize = subTable.postingCount(slot);
+            if (subSize < 2)
+                continue;
+            if (subSize <= policy.maxBucket()) {
+                addAllPairs(subTable.postings(slot), subSize, candidatePairs);
+            } else {
+                addSampledPairs(subTable.postings(slot), subSize, subTable.key(slot), policy, candidatePairs);
+            }
+        }
+    }
+
+    public static long pair(int doc1, int doc2) {
+        int lo = Math.min(doc1, doc2), hi = Math.max(doc1, doc2);
+        return ((long) lo << 32) | (hi & 0xFFFFFFFFL);
+    }
+
+    public static int first(long pair) {
+        return (int) (pair >>> 32);
+    }
+
+    public static int second(long pair) {
+        return (int) pair;
+    }
+}
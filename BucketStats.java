@@ -0,0 +1,71 @@
+// Bucket-size distribution of a set of band tables, and the candidate pairs it implies
+public class BucketStats {
+    private final long[] histogram = new long[32]; // histogram[k]: buckets holding [2^k, 2^(k+1)) docs
+    private long buckets;
+    private long pairs;
+    private long oversized;
+    private long oversizedPairs;
+    private int largest;
+
+    public static BucketStats of(BandTable[] tables, int maxBucket) {
+        BucketStats stats = new BucketStats();
+        for (BandTable table : tables) {
+            for (int slot = 0; slot < table.capacity(); slot++) {
+                int size = table.postingCount(slot);
+                if (size == 0)
+                    continue;
+                long bucketPairs = (long) size * (size - 1) / 2;
+                stats.histogram[31 - Integer.numberOfLeadingZeros(size)]++;
+                stats.buckets++;
+                stats.pairs += bucketPairs;
+                stats.largest = Math.max(stats.largest, size);
+                if (size > maxBucket) {
+                    stats.oversized++;
+                    stats.oversizedPairs += bucketPairs;
+                }
+            }
+        }
+        return stats;
+    }
+
+    public long buckets() {
+        return buckets;
+    }
+
+    // Pairs the unbounded nested loop would emit, before deduplication across bands
+    public long pairs() {
+        return pairs;
+    }
+
+    public long oversized() {
+        return oversized;
+    }
+
+    public long oversizedPairs() {
+        return oversizedPairs;
+    }
+
+    public int largest() {
+        return largest;
+    }
+
+    public long histogram(int log2Size) {
+        return histogram[log2Size];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("buckets=").append(buckets).append(", largest=").append(largest)
+                .append(", pairs=").append(pairs).append(", oversized=").append(oversized)
+                .append(" (").append(oversizedPairs).append(" pairs), sizes {");
+        boolean first = true;
+        for (int k = 0; k < histogram.length; k++) {
+            if (histogram[k] == 0)
+                continue;
+            sb.append(first ? "" : ", ").append(1 << k).append("+: ").append(histogram[k]);
+            first = false;
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,147 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
+
+// BandTable variant that many threads may read while one writer at a time appends. Writers are serialized
+// on the table; readers never lock. Each bucket publishes an immutable-prefix postings array: appends
+// write the element before the volatile size, growth and removal publish a fresh copy, so a reader sees
+// either the old or the new doc list, never a torn one. Resizes publish a new slot array through a
+// volatile field and reuse the bucket objects, so readers on the old array keep seeing later appends.
+// Buckets emptied by removal are reclaimed the same way: once they make up half the occupied slots, the
+// live buckets are copied into a fresh array sized for them and published, so no reader ever walks a
+// probe chain that is being shifted in place.
+public class ConcurrentBandTable {
+    private volatile AtomicReferenceArray<Bucket> slots;
+    private int buckets; // Occupied slots, emptied buckets included; guarded by this
+    private int emptied; // Buckets whose postings dropped to zero; guarded by this
+
+    private static final class Bucket {
+        final long key;
+        volatile Postings postings;
+
+        Bucket(long key, Postings postings) {
+            this.key = key;
+            this.postings = postings;
+        }
+    }
+
+    // docs[0, size) never changes once size covers it; only the owning writer advances size
+    private static final class Postings {
+        final int[] docs;
+        volatile int size;
+
+        Postings(int[] docs, int size) {
+            this.docs = docs;
+            this.size = size;
+        }
+    }
+
+    public ConcurrentBandTable() {
+        this(16);
+    }
+
+    public ConcurrentBandTable(int expectedBuckets) {
+        slots = new AtomicReferenceArray<>(LongHashSet.tableSizeFor(expectedBuckets));
+    }
+
+    public synchronized int bucketCount() {
+        return buckets;
+    }
+
+    // Visits the docs of the key's bucket as of the moment of the call; never blocks
+    public void forEach(long key, IntConsumer action) {
+        Bucket bucket = find(slots, key);
+        if (bucket == null)
+            return;
+        Postings postings = bucket.postings;
+        int size = postings.size;
+        int[] docs = postings.docs;
+        for (int i = 0; i < size; i++) {
+            action.accept(docs[i]);
+        }
+    }
+
+    public int postingCount(long key) {
+        Bucket bucket = find(slots, key);
+        return bucket == null ? 0 : bucket.postings.size;
+    }
+
+    public synchronized void add(long key, int doc) {
+        AtomicReferenceArray<Bucket> table = slots;
+        Bucket bucket = find(table, key);
+        if (bucket == null) {
+            insert(table, new Bucket(key, new Postings(new int[] { doc, 0 }, 1)));
+            if (++buckets * 2 > table.length())
+                rebuild(table, table.length() * 2);
+            return;
+        }
+        Postings postings = bucket.postings;
+        int size = postings.size;
+        if (size == 0)
+            emptied--;
+        if (size < postings.docs.length) {
+            postings.docs[size] = doc;
+            postings.size = size + 1; // Publishes the element written above
+        } else {
+            int[] docs = Arrays.copyOf(postings.docs, size * 2);
+            docs[size] = doc;
+            bucket.postings = new Postings(docs, size + 1);
+        }
+    }
+
+    // Removes one occurrence of doc by publishing a copy without it
+    public synchronized boolean remove(long key, int doc) {
+        AtomicReferenceArray<Bucket> table = slots;
+        Bucket bucket = find(table, key);
+        if (bucket == null)
+            return false;
+        Postings postings = bucket.postings;
+        int size = postings.size;
+        for (int i = 0; i < size; i++) {
+            if (postings.docs[i] == doc) {
+                int[] docs = Arrays.copyOf(postings.docs, postings.docs.length);
+                docs[i] = docs[size - 1];
+                bucket.postings = new Postings(docs, size - 1);
+                if (size == 1 && ++emptied * 2 > buckets)
+                    rebuild(table, LongHashSet.tableSizeFor(buckets - emptied));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Bucket find(AtomicReferenceArray<Bucket> table, long key) {
+        int mask = table.length() - 1;
+        int slot = (int) Hashing.mix64(key) & mask;
+        Bucket bucket;
+        while ((bucket = table.get(slot)) != null) {
+            if (bucket.key == key)
+                return bucket;
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    private static void insert(AtomicReferenceArray<Bucket> table, Bucket bucket) {
+        int mask = table.length() - 1;
+        int slot = (int) Hashing.mix64(bucket.key) & mask;
+        while (table.get(slot) != null) {
+            slot = (slot + 1) & mask;
+        }
+        table.set(slot, bucket);
+    }
+
+    // Copies the live buckets into a new array of the given capacity and publishes it; emptied buckets are
+    // dropped rather than copied, which is what frees their slots
+    private void rebuild(AtomicReferenceArray<Bucket> old, int capacity) {
+        AtomicReferenceArray<Bucket> table = new AtomicReferenceArray<>(capacity);
+        for (int i = 0; i < old.length(); i++) {
+            Bucket bucket = old.get(i);
+            if (bucket != null && bucket.postings.size > 0)
+                insert(table, bucket);
+        }
+        buckets -= emptied;
+        emptied = 0;
+        slots = table;
+    }
+}
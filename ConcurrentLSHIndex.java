@@ -0,0 +1,102 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// LSHIndex that serves queries from any number of threads while documents are inserted or removed.
+// Writers are serialized on the index; queries take no locks and see every insert that completed
+// before they started. A signature is published before its band entries, so any doc a query finds in
+// a bucket already has its signature visible (or has since been removed, and is skipped).
+public class ConcurrentLSHIndex {
+    private final int bands;
+    private final int rows;
+    private final ConcurrentBandTable[] tables;
+    private volatile AtomicReferenceArray<int[]> signatures = new AtomicReferenceArray<>(16);
+    private volatile int size;
+
+    public ConcurrentLSHIndex(int bands, int rows) {
+        this.bands = bands;
+        this.rows = rows;
+        this.tables = new ConcurrentBandTable[bands];
+        for (int band = 0; band < bands; band++) {
+            tables[band] = new ConcurrentBandTable();
+        }
+    }
+
+    public int bands() {
+        return bands;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int[] signature(int id) {
+        AtomicReferenceArray<int[]> current = signatures;
+        return id >= 0 && id < current.length() ? current.get(id) : null;
+    }
+
+    // Adds or replaces the document's signature in every band table
+    public synchronized void insert(int id, int[] signature) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Document id must be non-negative: " + id);
+        }
+        if (signature.length < bands * rows) {
+            throw new IllegalArgumentException("Signature has " + signature.length + " slots, need " + bands * rows);
+        }
+        remove(id);
+        AtomicReferenceArray<int[]> current = signatures;
+        if (id >= current.length()) {
+            AtomicReferenceArray<int[]> grown = new AtomicReferenceArray<>(Math.max(id + 1, current.length() * 2));
+            for (int i = 0; i < current.length(); i++) {
+                grown.set(i, current.get(i));
+            }
+            signatures = current = grown;
+        }
+        int[] copy = signature.clone(); // Private copy: callers such as StreamingSignatures update in place
+        current.set(id, copy);
+        // Empty sets are stored but not bucketed: they would all share one bucket
+        for (int band = 0; band < bands && !MinHashEngine.isEmpty(copy); band++) {
+            tables[band].add(Banding.bandKey(copy, band, rows), id);
+        }
+        size++;
+    }
+
+    public synchronized boolean remove(int id) {
+        int[] signature = signature(id);
+        if (signature == null)
+            return false;
+        for (int band = 0; band < bands && !MinHashEngine.isEmpty(signature); band++) {
+            tables[band].remove(Banding.bandKey(signature, band, rows), id);
+        }
+        signatures.set(id, null);
+        size--;
+        return true;
+    }
+
+    // Same semantics as LSHIndex.query
+    public List<LSHIndex.Candidate> query(int[] signature, double threshold) {
+        long start = Metrics.now();
+        List<LSHIndex.Candidate> results = new ArrayList<>();
+        LongHashSet seen = new LongHashSet();
+        for (int band = 0; band < bands; band++) {
+            tables[band].forEach(Banding.bandKey(signature, band, rows), doc -> {
+                if (!seen.add(doc))
+                    return;
+                int[] candidate = signature(doc);
+                if (candidate == null)
+                    return;
+                double similarity = MinHashEngine.estimateJaccard(signature, candidate);
+                if (similarity >= threshold) {
+                    results.add(new LSHIndex.Candidate(doc, similarity));
+                }
+            });
+        }
+        LSHIndex.rank(results);
+        LSHIndex.recordQuery(start, seen.size(), results.size());
+        return results;
+    }
+}
@@ -0,0 +1,286 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+// Signatures of documents read straight from memory-mapped files, for inputs too large to load as Strings.
+// Bytes are normalized as they are read, the way MinHash.readFile does (ASCII letters lowercased, anything
+// but a-z and space dropped; no regex, no copies), and each k-character shingle is rolled with the same
+// hash as KGramJaccard.generateHashedKGrams and fed to a SignatureGenerator.Accumulator. Per-document
+// state is the k-byte window plus the accumulator, however long the document. Files are mapped in
+// windows of MAP_WINDOW bytes, so files beyond 2 GB and records spanning windows need no special care.
+public class DocumentStream {
+    static final int MAP_WINDOW = 1 << 30;
+    private static final Metrics.Timer STREAMING = Metrics.timer("streaming");
+    private static final Metrics.Counter DOCUMENTS = Metrics.counter("streaming.documents");
+
+    private final SignatureGenerator generator;
+    private final int k;
+
+    public interface Sink {
+        void accept(long record, int[] signature);
+    }
+
+    // A record's signature plus a HyperLogLog of the same shingles, built in the same pass
+    public interface SketchSink {
+        void accept(long record, int[] signature, HyperLogLog cardinality);
+    }
+
+    public DocumentStream(SignatureGenerator generator, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Shingle length must be positive: " + k);
+        }
+        this.generator = generator;
+        this.k = k;
+    }
+
+    // The whole file as one document; equals generator.signature(generateHashedKGrams(MinHash.readFile(file), k))
+    public int[] signature(Path file) throws IOException {
+        int[][] result = new int[1][];
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            scan(channel, 0, channel.size(), -1, 0, 0, (record, signature, cardinality) -> result[0] = signature);
+        }
+        return result[0];
+    }
+
+    // One signature per file, files signed in parallel
+    public int[][] signatures(List<Path> files) throws IOException {
+        int[][] signatures = new int[files.size()][];
+        try {
+            IntStream.range(0, files.size()).parallel().forEach(i -> signatures[i] = ioSignature(files.get(i)));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return signatures;
+    }
+
+    // One document per record, records ended by the separator byte (e.g. '\n'), delivered in file order.
+    // Records are numbered from 0; empty records still get an (empty-set) signature so numbers line up
+    // with the file. Returns the record count.
+    public long forEachRecord(Path file, byte separator, Sink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return scan(channel, 0, channel.size(), separator & 0xFF, 0, 0,
+                    (record, signature, cardinality) -> sink.accept(record, signature));
+        }
+    }
+
+    // As forEachRecord, but the file is cut into one slice per core at record boundaries and the slices are
+    // signed concurrently: the sink must be thread-safe and sees records in no particular order. A cheap
+    // first pass counts each slice's separators so every record still gets its file-order number.
+    public long forEachRecordParallel(Path file, byte separator, Sink sink) throws IOException {
+        return forEachRecordParallel(file, separator, 0, (record, signature, cardinality) -> sink.accept(record,
+                signature));
+    }
+
+    // As forEachRecordParallel, also counting each record's shingles into a HyperLogLog of the given
+    // precision, so set sizes are known (e.g. for SetSketch.prune) although the shingles are never kept
+    public long forEachSketchParallel(Path file, byte separator, int precision, SketchSink sink) throws IOException {
+        new HyperLogLog(precision); // Rejects a bad precision before any slice starts
+        return forEachRecordParallel(file, separator, precision, sink);
+    }
+
+    // precision 0: no cardinality sketches, the sink gets null
+    private long forEachRecordParallel(Path file, byte separator, int precision, SketchSink sink)
+            throws IOException {
+        int sep = separator & 0xFF;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            int slices = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), length / (1 << 20)));
+            long[] bounds = new long[slices + 1];
+            bounds[slices] = length;
+            for (int i = 1; i < slices; i++) {
+                bounds[i] = Math.max(bounds[i - 1], nextRecord(channel, length * i / slices, length, sep));
+            }
+            long[] firstRecord = new long[slices + 1];
+            try {
+                long[] separators = new long[slices];
+                IntStream.range(0, slices).parallel().forEach(i -> separators[i] = io(() ->
+                        countSeparators(channel, bounds[i], bounds[i + 1], sep)));
+                for (int i = 0; i < slices; i++) {
+                    firstRecord[i + 1] = firstRecord[i] + separators[i];
+                }
+                long[] records = new long[slices];
+                IntStream.range(0, slices).parallel().forEach(i -> records[i] = io(() ->
+                        scan(channel, bounds[i], bounds[i + 1], sep, firstRecord[i], precision, sink)));
+                return LongStream.of(records).sum();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    // Number of records forEachRecord would deliver, from one pass over the separators; lets callers size
+    // per-record arrays before a parallel scan
+    public static long countRecords(Path file, byte separator) throws IOException {
+        int sep = separator & 0xFF;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length == 0)
+                return 0;
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, length - 1);
+            boolean open = (last.get(0) & 0xFF) != sep; // A final record without a trailing separator
+            return countSeparators(channel, 0, length, sep) + (open ? 1 : 0);
+        }
+    }
+
+    private int[] ioSignature(Path file) {
+        try {
+            return signature(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface IOSupplier {
+        long get() throws IOException;
+    }
+
+    private static long io(IOSupplier supplier) {
+        try {
+            return supplier.get();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Offset just past the first separator at or after `from`, or `length` if there is none
+    private static long nextRecord(FileChannel channel, long from, long length, int separator) throws IOException {
+        for (long offset = from; offset < length; offset += MAP_WINDOW) {
+            int size = (int) Math.min(MAP_WINDOW, length - offset);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            for (int i = 0; i < size; i++) {
+                if ((buffer.get(i) & 0xFF) == separator)
+                    return offset + i + 1;
+            }
+        }
+        return length;
+    }
+
+    private static long countSeparators(FileChannel channel, long from, long to, int separator) throws IOException {
+        long count = 0;
+        for (long offset = from; offset < to; offset += MAP_WINDOW) {
+            int size = (int) Math.min(MAP_WINDOW, to - offset);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            for (int i = 0; i < size; i++) {
+                if ((buffer.get(i) & 0xFF) == separator)
+                    count++;
+            }
+        }
+        return count;
+    }
+
+    // Signs the records of file[from, to), numbering them from firstRecord; separator < 0 makes the whole
+    // range one record, precision > 0 adds a HyperLogLog per record. Returns the number of records delivered.
+    private long scan(FileChannel channel, long from, long to, int separator, long firstRecord, int precision,
+            SketchSink sink) throws IOException {
+        long start = Metrics.now();
+        SignatureGenerator.Accumulator accumulator = generator.accumulator();
+        HyperLogLog cardinality = precision > 0 ? new HyperLogLog(precision) : null;
+        long dropFactor = Hashing.rollPower(k - 1);
+        byte[] window = new byte[k]; // Last k normalized bytes, oldest at head once full
+        int head = 0, filled = 0;
+        long h = 0, records = 0;
+        boolean open = false; // Bytes seen since the last separator
+        for (long offset = from; offset < to; offset += MAP_WINDOW) {
+            int size = (int) Math.min(MAP_WINDOW, to - offset);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+            for (int i = 0; i < size; i++) {
+                int c = buffer.get(i) & 0xFF;
+                if (c == separator) {
+                    sink.accept(firstRecord + records++, accumulator.finish(), cardinality);
+                    if (cardinality != null)
+                        cardinality = new HyperLogLog(precision);
+                    h = 0;
+                    head = filled = 0;
+                    open = false;
+                    continue;
+                }
+                open = true;
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                } else if ((c < 'a' || c > 'z') && c != ' ') {
+                    continue;
+                }
+                h = h * Hashing.ROLL_BASE + c;
+                window[head] = (byte) c;
+                head = head + 1 == k ? 0 : head + 1;
+                if (filled < k)
+                    filled++;
+                if (filled == k) {
+                    long shingle = Hashing.mix64(h);
+                    accumulator.add(shingle);
+                    if (cardinality != null)
+                        cardinality.add(shingle);
+                    h -= window[head] * dropFactor;
+                }
+            }
+        }
+        if (open || separator < 0) // A final record without a trailing separator
+            sink.accept(firstRecord + records++, accumulator.finish(), cardinality);
+        STREAMING.record(start, to - from);
+        DOCUMENTS.add(records);
+        return records;
+    }
+
+    // Streams a record file (one document per line) and reports near-duplicate pairs. Signatures and
+    // HyperLogLogs go straight into arrays indexed by record number, sized by a first counting pass, so the
+    // parallel scan shares no lock. The shingle sets are never held: candidate pairs are size-filtered on
+    // the HyperLogLogs before their signatures are compared, which needs only a coarse size estimate, so
+    // the sketches use a low precision.
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: DocumentStream <file> [k] [threshold]");
+            return;
+        }
+        Path file = Paths.get(args[0]);
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.8;
+        int bands = 20, rows = 5;
+        int precision = 10; // 1 KB per document, about 3% standard error on its size
+        DocumentStream stream = new DocumentStream(new MinHashEngine(bands * rows, 42), k);
+
+        long start = System.nanoTime();
+        long count = countRecords(file, (byte) '\n');
+        if (count > Integer.MAX_VALUE)
+            throw new IllegalStateException("More records than an array can hold: " + count);
+        int[][] signatures = new int[(int) count][];
+        HyperLogLog[] cardinalities = new HyperLogLog[(int) count];
+        long records = stream.forEachSketchParallel(file, (byte) '\n', precision, (record, signature, cardinality) -> {
+            signatures[(int) record] = signature;
+            cardinalities[(int) record] = cardinality;
+        });
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Streamed %d documents (%.1f MB) in %.2f s: %.1f MB/s\n", records,
+                file.toFile().length() / 1e6, seconds, file.toFile().length() / 1e6 / seconds);
+
+        SetSketch[] sketches = new SetSketch[(int) records];
+        for (int doc = 0; doc < records; doc++) {
+            sketches[doc] = new SetSketch(signatures[doc], cardinalities[doc]);
+        }
+        LongHashSet candidates = ParallelPipeline.candidatePairs(
+                ParallelPipeline.buildTables(signatures, 0, (int) records, bands, rows));
+        LongHashSet kept = SetSketch.prune(candidates, sketches, threshold);
+        System.out.println("Candidate pairs: " + candidates.size() + ", after size filter: " + kept.size());
+
+        long pairs = 0, lost = 0;
+        for (long pair : candidates.toArray()) {
+            if (sketches[Banding.first(pair)].jaccard(sketches[Banding.second(pair)]) < threshold)
+                continue;
+            if (kept.contains(pair))
+                pairs++;
+            else
+                lost++;
+        }
+        System.out.println("Near-duplicate pairs (estimated Jaccard >= " + threshold + "): " + pairs + ", " + lost
+                + " more dropped by the size filter");
+        Metrics.dumpIfConfigured();
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.Arrays;
+
+public final class Hashing {
+    static final long ROLL_BASE = 0x9E3779B97F4A7C15L; // Odd multiplier for polynomial rolling hashes
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+
+    private Hashing() {
+    }
+
+    // MurmurHash3 finalizer: spreads polynomial hashes over all 64 bits
+    public static long mix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // FNV-1a over text[from, to) without materializing the substring
+    public static long hashChars(CharSequence text, int from, int to) {
+        long h = FNV_OFFSET;
+        for (int i = from; i < to; i++) {
+            h ^= text.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return h;
+    }
+
+    // ROLL_BASE^exp, used to drop the oldest term from a rolling window
+    static long rollPower(int exp) {
+        long p = 1;
+        for (int i = 0; i < exp; i++) {
+            p *= ROLL_BASE;
+        }
+        return p;
+    }
+
+    // Sorts the first n hashes in place and returns them deduplicated as an exact-size array
+    static long[] sortedUnique(long[] hashes, int n) {
+        if (n == 0) {
+            return new long[0];
+        }
+        Arrays.sort(hashes, 0, n);
+        int unique = 1;
+        for (int i = 1; i < n; i++) {
+            if (hashes[i] != hashes[unique - 1]) {
+                hashes[unique++] = hashes[i];
+            }
+        }
+        return Arrays.copyOf(hashes, unique);
+    }
+}
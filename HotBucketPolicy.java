@@ -0,0 +1,73 @@
+// What candidate generation does with a band bucket holding more than maxBucket docs, which would
+// otherwise contribute O(n^2) pairs. With any bounded mode a bucket yields at most maxBucket^2 / 2 pairs.
+public final class HotBucketPolicy {
+    public enum Mode {
+        UNBOUNDED, // Every pair of every bucket
+        CAP,       // Oversized buckets are skipped, like stop words: they say little about similarity
+        SAMPLE,    // A pseudo-random subset of maxBucket docs per oversized bucket is paired
+        SUB_BAND   // Oversized buckets are split by extraRows spare signature rows; still-oversized parts are sampled
+    }
+
+    public static final HotBucketPolicy UNBOUNDED = new HotBucketPolicy(Mode.UNBOUNDED, Integer.MAX_VALUE, 0, 0);
+
+    private final Mode mode;
+    private final int maxBucket;
+    private final int extraRows;
+    private final long seed;
+
+    private HotBucketPolicy(Mode mode, int maxBucket, int extraRows, long seed) {
+        if (maxBucket < 2) {
+            throw new IllegalArgumentException("Bucket limit must be at least 2: " + maxBucket);
+        }
+        this.mode = mode;
+        this.maxBucket = maxBucket;
+        this.extraRows = extraRows;
+        this.seed = seed;
+    }
+
+    public static HotBucketPolicy cap(int maxBucket) {
+        return new HotBucketPolicy(Mode.CAP, maxBucket, 0, 0);
+    }
+
+    public static HotBucketPolicy sample(int maxBucket, long seed) {
+        return new HotBucketPolicy(Mode.SAMPLE, maxBucket, 0, seed);
+    }
+
+    public static HotBucketPolicy subBand(int maxBucket, int extraRows, long seed) {
+        if (extraRows < 1) {
+            throw new IllegalArgumentException("Sub-banding needs at least one extra row: " + extraRows);
+        }
+        return new HotBucketPolicy(Mode.SUB_BAND, maxBucket, extraRows, seed);
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public int maxBucket() {
+        return maxBucket;
+    }
+
+    public int extraRows() {
+        return extraRows;
+    }
+
+    public long seed() {
+        return seed;
+    }
+
+    @Override
+    public String toString() {
+        switch (mode) {
+            case CAP:
+                return "cap " + maxBucket;
+            case SAMPLE:
+                return "sample " + maxBucket;
+            case SUB_BAND:
+                return "sub-band +" + extraRows + " rows, limit " + maxBucket;
+            case UNBOUNDED:
+            default:
+                return "unbounded";
+        }
+    }
+}
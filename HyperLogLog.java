@@ -0,0 +1,117 @@
+// Cardinality sketch (Flajolet et al., 2007): 2^precision one-byte registers, each keeping the longest
+// run of leading zeros seen among the hashes routed to it. Relative standard error is about
+// 1.04 / sqrt(2^precision); small sets fall back to linear counting over the empty registers, which is
+// close to exact while most registers are still empty. Sketches of equal precision merge by register max,
+// giving the sketch of the union.
+public class HyperLogLog {
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("Precision must be in [4, 18]: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    public static HyperLogLog of(int precision, long[] shingles) {
+        HyperLogLog sketch = new HyperLogLog(precision);
+        for (long shingle : shingles) {
+            sketch.add(shingle);
+        }
+        return sketch;
+    }
+
+    // items[from, to), e.g. one user's slice of a CSR array
+    public static HyperLogLog of(int precision, int[] items, int from, int to) {
+        HyperLogLog sketch = new HyperLogLog(precision);
+        for (int i = from; i < to; i++) {
+            sketch.add(items[i] & 0xFFFFFFFFL);
+        }
+        return sketch;
+    }
+
+    public int precision() {
+        return precision;
+    }
+
+    public int sizeInBytes() {
+        return registers.length;
+    }
+
+    // Relative standard error of cardinality()
+    public double relativeError() {
+        return 1.04 / Math.sqrt(registers.length);
+    }
+
+    // Elements are re-mixed, so raw ids and already hashed shingles are both fine
+    public void add(long element) {
+        long h = Hashing.mix64(element);
+        int register = (int) (h >>> (64 - precision));
+        int rank = Long.numberOfLeadingZeros((h << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[register])
+            registers[register] = (byte) rank;
+    }
+
+    // Folds the other sketch in, making this the sketch of the union
+    public void merge(HyperLogLog other) {
+        checkPrecision(other);
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+    }
+
+    public double cardinality() {
+        return estimate(registers, null);
+    }
+
+    // Cardinality of the union of the two sets, without materializing the merged sketch
+    public double unionCardinality(HyperLogLog other) {
+        checkPrecision(other);
+        return estimate(registers, other.registers);
+    }
+
+    public HyperLogLog copy() {
+        HyperLogLog copy = new HyperLogLog(precision);
+        System.arraycopy(registers, 0, copy.registers, 0, registers.length);
+        return copy;
+    }
+
+    // Harmonic mean of 2^register over the register-wise max of a and b (b may be null)
+    private static double estimate(byte[] a, byte[] b) {
+        int m = a.length;
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < m; i++) {
+            int register = b == null ? a[i] : Math.max(a[i], b[i]);
+            sum += Double.longBitsToDouble((1023L - register) << 52); // 2^-register without Math.pow
+            if (register == 0)
+                zeros++;
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0)
+            estimate = m * Math.log((double) m / zeros); // Linear counting
+        return estimate;
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    private void checkPrecision(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Precision differs: " + precision + " vs " + other.precision);
+        }
+    }
+}
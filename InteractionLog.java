@@ -0,0 +1,230 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// User-item interactions in CSR form: items(user) = items[offsets[user] .. offsets[user + 1]), sorted and distinct,
+// with ratings[i] the rating of items[i] (DEFAULT_RATING unless loaded with ratings)
+public class InteractionLog {
+    private static final int BUFFER_SIZE = 1 << 20;
+    static final int DEFAULT_RATING = 1; // Lines without a rating column count as unit weight
+
+    private final int[] offsets;
+    private final int[] items;
+    private final int[] ratings;
+    private final int itemLimit;
+
+    public interface Consumer {
+        void accept(int user, int item);
+
+        // Called instead of the two-argument form for lines that carry a rating
+        default void accept(int user, int item, int rating) {
+            accept(user, item);
+        }
+    }
+
+    private InteractionLog(int[] offsets, int[] items, int[] ratings, int itemLimit) {
+        this.offsets = offsets;
+        this.items = items;
+        this.ratings = ratings;
+        this.itemLimit = itemLimit;
+    }
+
+    // Parses "user<ws>item[<ws>...]" lines straight from the byte stream; fields after the item are ignored.
+    // User and item must be non-negative integers; any other byte in them fails with the line number.
+    public static void stream(Path path, Consumer consumer) throws IOException {
+        stream(path, consumer, false);
+    }
+
+    // With withRatings, the third field is read as a non-negative integer rating and passed to the
+    // three-argument accept; lines without one get the two-argument form. Fields after it are ignored.
+    public static void stream(Path path, Consumer consumer, boolean withRatings) throws IOException {
+        int parsedFields = withRatings ? 3 : 2;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            byte[] bytes = buffer.array();
+            int field = 0, user = 0, item = 0, rating = 0;
+            long value = 0, line = 1;
+            boolean inNumber = false;
+            while (channel.read(buffer) >= 0) {
+                int limit = buffer.position();
+                for (int i = 0; i < limit; i++) {
+                    byte c = bytes[i];
+                    if (c >= '0' && c <= '9') {
+                        if (field < parsedFields) {
+                            value = value * 10 + (c - '0');
+                            if (value > Integer.MAX_VALUE) // Checked per digit, so the long itself never wraps
+                                throw new IOException(fieldName(field) + " out of int range on line " + line);
+                        }
+                        inNumber = true;
+                        continue;
+                    }
+                    // Parsed fields hold digits only: "1.5" or "-7" must not be read as two fields or as 7
+                    if (field < parsedFields && c != ' ' && c != '\t' && c != '\r' && c != '\n')
+                        throw new IOException(fieldName(field) + " is not a non-negative integer on line " + line);
+                    if (inNumber) {
+                        if (field == 0)
+                            user = (int) value;
+                        else if (field == 1)
+                            item = (int) value;
+                        else if (field == 2)
+                            rating = (int) value;
+                        field++;
+                        value = 0;
+                        inNumber = false;
+                    }
+                    if (c == '\n') {
+                        accept(consumer, field, parsedFields, user, item, rating);
+                        field = 0;
+                        line++;
+                    }
+                }
+                buffer.clear();
+            }
+            if (inNumber) {
+                if (field == 1)
+                    item = (int) value;
+                else if (field == 2)
+                    rating = (int) value;
+                field++;
+            }
+            accept(consumer, field, parsedFields, user, item, rating);
+        }
+    }
+
+    private static String fieldName(int field) {
+        return field == 0 ? "User id" : field == 1 ? "Item id" : "Rating";
+    }
+
+    private static void accept(Consumer consumer, int fields, int parsedFields, int user, int item, int rating) {
+        if (fields >= 3 && parsedFields >= 3)
+            consumer.accept(user, item, rating);
+        else if (fields >= 2)
+            consumer.accept(user, item);
+    }
+
+    // Every interaction weighs DEFAULT_RATING; extra columns such as timestamps are ignored
+    public static InteractionLog load(Path path) throws IOException {
+        return load(path, false);
+    }
+
+    // withRatings: the third column holds integer ratings, kept in ratings()
+    public static InteractionLog load(Path path, boolean withRatings) throws IOException {
+        Builder builder = new Builder();
+        stream(path, builder, withRatings);
+        return builder.build();
+    }
+
+    // One past the largest user id
+    public int userLimit() {
+        return offsets.length - 1;
+    }
+
+    // One past the largest item id
+    public int itemLimit() {
+        return itemLimit;
+    }
+
+    public int[] items() {
+        return items;
+    }
+
+    public int start(int user) {
+        return offsets[user];
+    }
+
+    public int end(int user) {
+        return offsets[user + 1];
+    }
+
+    public int size(int user) {
+        return offsets[user + 1] - offsets[user];
+    }
+
+    // Parallel to items()
+    public int[] ratings() {
+        return ratings;
+    }
+
+    public int[] itemsOf(int user) {
+        return Arrays.copyOfRange(items, offsets[user], offsets[user + 1]);
+    }
+
+    // Buffers raw triples, then counting-sorts them by user into CSR with per-user dedup
+    // (a repeated item keeps its highest rating). The build is in memory: three ints per input line while
+    // buffering, and every array is int-indexed, so a log is limited to MAX_PAIRS lines. Larger logs must be
+    // consumed through stream() directly, e.g. by StreamingSignatures.
+    public static class Builder implements Consumer {
+        static final int MAX_PAIRS = Integer.MAX_VALUE - 8; // Largest array length VMs reliably allocate
+
+        private int[] users = new int[1024];
+        private int[] pairItems = new int[1024];
+        private int[] pairRatings = new int[1024];
+        private int size;
+        private int userLimit;
+        private int itemLimit;
+
+        @Override
+        public void accept(int user, int item) {
+            accept(user, item, DEFAULT_RATING);
+        }
+
+        @Override
+        public void accept(int user, int item, int rating) {
+            if (size == users.length)
+                grow();
+            users[size] = user;
+            pairRatings[size] = rating;
+            pairItems[size++] = item;
+            userLimit = Math.max(userLimit, user + 1);
+            itemLimit = Math.max(itemLimit, item + 1);
+        }
+
+        private void grow() {
+            if (size == MAX_PAIRS) {
+                throw new IllegalStateException("Log exceeds " + MAX_PAIRS
+                        + " interactions, the limit of the in-memory CSR build; stream it instead");
+            }
+            int capacity = (int) Math.min(MAX_PAIRS, size * 2L);
+            users = Arrays.copyOf(users, capacity);
+            pairItems = Arrays.copyOf(pairItems, capacity);
+            pairRatings = Arrays.copyOf(pairRatings, capacity);
+        }
+
+        public InteractionLog build() {
+            int[] offsets = new int[userLimit + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[users[i] + 1]++;
+            }
+            for (int u = 0; u < userLimit; u++) {
+                offsets[u + 1] += offsets[u];
+            }
+            // (item, rating) packed so one primitive sort orders items and puts the highest rating last
+            long[] entries = new long[size];
+            int[] next = Arrays.copyOf(offsets, userLimit);
+            for (int i = 0; i < size; i++) {
+                entries[next[users[i]]++] = ((long) pairItems[i] << 32) | (pairRatings[i] & 0xFFFFFFFFL);
+            }
+
+            int[] items = new int[size];
+            int[] ratings = new int[size];
+            int write = 0;
+            for (int u = 0; u < userLimit; u++) {
+                int from = offsets[u], to = offsets[u + 1];
+                Arrays.sort(entries, from, to);
+                offsets[u] = write;
+                for (int i = from; i < to; i++) {
+                    int item = (int) (entries[i] >>> 32);
+                    if (write > offsets[u] && items[write - 1] == item)
+                        write--;
+                    items[write] = item;
+                    ratings[write++] = (int) entries[i];
+                }
+            }
+            offsets[userLimit] = write;
+            return new InteractionLog(offsets, Arrays.copyOf(items, write), Arrays.copyOf(ratings, write), itemLimit);
+        }
+    }
+}
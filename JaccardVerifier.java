@@ -0,0 +1,200 @@
+// Exact Jaccard over sorted, distinct primitive id arrays (or bitsets) without allocating per pair
+public final class JaccardVerifier {
+    private static final int GALLOP_RATIO = 32; // Size skew beyond which galloping beats a linear merge
+    private static final Metrics.Counter CHECKS = Metrics.counter("verification.checks");
+    private static final Metrics.Counter HITS = Metrics.counter("verification.hits");
+
+    static {
+        Metrics.ratio("verification.hit_ratio", "verification.hits", "verification.checks");
+    }
+
+    private JaccardVerifier() {
+    }
+
+    public static double jaccard(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo) {
+        int intersection = intersectionSize(a, aFrom, aTo, b, bFrom, bTo);
+        return (double) intersection / ((aTo - aFrom) + (bTo - bFrom) - intersection);
+    }
+
+    public static double jaccard(long[] a, long[] b) {
+        int intersection = intersectionSize(a, b);
+        return (double) intersection / (a.length + b.length - intersection);
+    }
+
+    // Weighted Jaccard sum(min) / sum(max) of two sorted id ranges with parallel weights
+    public static double weightedJaccard(int[] a, int[] aWeights, int aFrom, int aTo,
+            int[] b, int[] bWeights, int bFrom, int bTo) {
+        long minSum = 0, maxSum = 0;
+        int i = aFrom, j = bFrom;
+        while (i < aTo && j < bTo) {
+            if (a[i] < b[j]) {
+                maxSum += aWeights[i++];
+            } else if (a[i] > b[j]) {
+                maxSum += bWeights[j++];
+            } else {
+                minSum += Math.min(aWeights[i], bWeights[j]);
+                maxSum += Math.max(aWeights[i++], bWeights[j++]);
+            }
+        }
+        while (i < aTo) {
+            maxSum += aWeights[i++];
+        }
+        while (j < bTo) {
+            maxSum += bWeights[j++];
+        }
+        return maxSum == 0 ? 0 : (double) minSum / maxSum;
+    }
+
+    // Smallest overlap two sets of these sizes need for Jaccard >= threshold: o / (sizeA + sizeB - o) >= t
+    public static int requiredOverlap(int sizeA, int sizeB, double threshold) {
+        return (int) Math.ceil(threshold / (1 + threshold) * (sizeA + sizeB) - 1e-9);
+    }
+
+    // Rejects on the size bound min/max < t first, then merges with an early exit once the
+    // remaining elements can no longer reach the required overlap
+    public static boolean passes(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo, double threshold) {
+        CHECKS.increment();
+        boolean passes = overlapReaches(a, aFrom, aTo, b, bFrom, bTo, threshold);
+        if (passes)
+            HITS.increment();
+        return passes;
+    }
+
+    private static boolean overlapReaches(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo,
+            double threshold) {
+        int sizeA = aTo - aFrom, sizeB = bTo - bFrom;
+        if (sizeA + sizeB == 0)
+            return false;
+        if (Math.min(sizeA, sizeB) < threshold * Math.max(sizeA, sizeB))
+            return false;
+        int required = requiredOverlap(sizeA, sizeB, threshold);
+        int i = aFrom, j = bFrom, intersection = 0;
+        while (i < aTo && j < bTo) {
+            if (intersection + Math.min(aTo - i, bTo - j) < required)
+                return false;
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                intersection++;
+                i++;
+                j++;
+            }
+        }
+        return intersection >= required;
+    }
+
+    public static int intersectionSize(int[] a, int aFrom, int aTo, int[] b, int bFrom, int bTo) {
+        int sizeA = aTo - aFrom, sizeB = bTo - bFrom;
+        if (sizeA > sizeB)
+            return intersectionSize(b, bFrom, bTo, a, aFrom, aTo);
+        if ((long) sizeA * GALLOP_RATIO < sizeB)
+            return gallopIntersection(a, aFrom, aTo, b, bFrom, bTo);
+        int i = aFrom, j = bFrom, intersection = 0;
+        while (i < aTo && j < bTo) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                intersection++;
+                i++;
+                j++;
+            }
+        }
+        return intersection;
+    }
+
+    public static int intersectionSize(long[] a, long[] b) {
+        if (a.length > b.length)
+            return intersectionSize(b, a);
+        if ((long) a.length * GALLOP_RATIO < b.length)
+            return gallopIntersection(a, b);
+        int i = 0, j = 0, intersection = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                intersection++;
+                i++;
+                j++;
+            }
+        }
+        return intersection;
+    }
+
+    // Probes each element of the small set in the large one with exponential then binary search
+    private static int gallopIntersection(int[] small, int sFrom, int sTo, int[] large, int lFrom, int lTo) {
+        int intersection = 0, lo = lFrom;
+        for (int i = sFrom; i < sTo && lo < lTo; i++) {
+            int x = small[i];
+            int step = 1, hi = lo;
+            while (hi < lTo && large[hi] < x) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            hi = Math.min(hi, lTo - 1);
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (large[mid] < x) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            if (lo < lTo && large[lo] == x) {
+                intersection++;
+                lo++;
+            }
+        }
+        return intersection;
+    }
+
+    private static int gallopIntersection(long[] small, long[] large) {
+        int intersection = 0, lo = 0;
+        for (int i = 0; i < small.length && lo < large.length; i++) {
+            long x = small[i];
+            int step = 1, hi = lo;
+            while (hi < large.length && large[hi] < x) {
+                lo = hi + 1;
+                hi += step;
+                step <<= 1;
+            }
+            hi = Math.min(hi, large.length - 1);
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (large[mid] < x) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            if (lo < large.length && large[lo] == x) {
+                intersection++;
+                lo++;
+            }
+        }
+        return intersection;
+    }
+
+    // Dense item spaces: one bit per item id in [0, universe)
+    public static long[] toBitset(int[] items, int from, int to, int universe) {
+        long[] bits = new long[(universe + 63) >>> 6];
+        for (int i = from; i < to; i++) {
+            bits[items[i] >>> 6] |= 1L << items[i];
+        }
+        return bits;
+    }
+
+    public static int bitsetIntersectionSize(long[] bitsA, long[] bitsB) {
+        int intersection = 0;
+        for (int w = 0; w < bitsA.length; w++) {
+            intersection += Long.bitCount(bitsA[w] & bitsB[w]);
+        }
+        return intersection;
+    }
+}
@@ -3,6 +3,9 @@ import java.nio.file.Files;
 import java.util.*;
 
 public class KGramJaccard {
+    private static final Metrics.Timer SHINGLING = Metrics.timer("shingling");
+    private static final Metrics.Counter SHINGLES = Metrics.counter("shingling.shingles");
+
     public static void main(String[] args) throws IOException {
         List<String> docs = readDocuments(Arrays.asList("D1.txt", "D2.txt", "D3.txt", "D4.txt"));
 
@@ -57,12 +60,80 @@ public class KGramJaccard {
         return kGrams;
     }
 
+    // Rolls a 64-bit polynomial hash over each k-character window; returns sorted, distinct shingle hashes
+    public static long[] generateHashedKGrams(CharSequence text, int k) {
+        long startNanos = Metrics.now();
+        int n = text.length() - k + 1;
+        if (n <= 0) {
+            return new long[0];
+        }
+        long[] hashes = new long[n];
+        long dropFactor = Hashing.rollPower(k - 1);
+        long h = 0;
+        for (int i = 0; i < k - 1; i++) {
+            h = h * Hashing.ROLL_BASE + text.charAt(i);
+        }
+        for (int i = 0; i < n; i++) {
+            h = h * Hashing.ROLL_BASE + text.charAt(i + k - 1);
+            hashes[i] = Hashing.mix64(h);
+            h -= text.charAt(i) * dropFactor;
+        }
+        return recordShingles(startNanos, Hashing.sortedUnique(hashes, n));
+    }
+
+    // Same tokenization as generateWordKGrams (whitespace runs, leading empty word), but rolls word hashes
+    public static long[] generateHashedWordKGrams(CharSequence text, int k) {
+        long startNanos = Metrics.now();
+        long[] hashes = new long[text.length() / 2 + 1];
+        long[] window = new long[k];
+        long dropFactor = Hashing.rollPower(k - 1);
+        long h = 0;
+        int words = 0, n = 0;
+        int i = 0, len = text.length();
+        do {
+            int start = i;
+            while (i < len && !isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            int end = i;
+            while (i < len && isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (start == end && i == len && len > 0) {
+                break; // Trailing empty word is dropped, as String.split does
+            }
+            long wordHash = Hashing.mix64(Hashing.hashChars(text, start, end));
+            if (words >= k) {
+                h -= window[words % k] * dropFactor;
+            }
+            h = h * Hashing.ROLL_BASE + wordHash;
+            window[words % k] = wordHash;
+            if (++words >= k) {
+                hashes[n++] = Hashing.mix64(h);
+            }
+        } while (i < len);
+        return recordShingles(startNanos, Hashing.sortedUnique(hashes, n));
+    }
+
+    private static long[] recordShingles(long start, long[] shingles) {
+        SHINGLING.record(start, 1);
+        SHINGLES.add(shingles.length);
+        return shingles;
+    }
+
+    // Matches the \s character class used by generateWordKGrams
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
     private static void computeJaccardSimilarity(List<String> docs, int k, boolean isWordGram) {
+        List<long[]> shingles = new ArrayList<>();
+        for (String doc : docs) {
+            shingles.add(isWordGram ? generateHashedWordKGrams(doc, k) : generateHashedKGrams(doc, k));
+        }
         for (int i = 0; i < docs.size(); i++) {
             for (int j = i + 1; j < docs.size(); j++) {
-                Set<String> set1 = isWordGram ? generateWordKGrams(docs.get(i), k) : generateKGrams(docs.get(i), k);
-                Set<String> set2 = isWordGram ? generateWordKGrams(docs.get(j), k) : generateKGrams(docs.get(j), k);
-                double similarity = jaccard(set1, set2);
+                double similarity = JaccardVerifier.jaccard(shingles.get(i), shingles.get(j));
                 System.out.printf("D%d-D%d: %.4f\n", i + 1, j + 1, similarity);
             }
         }
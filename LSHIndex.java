@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class LSHIndex {
+    private static final int PAIR_CANDIDATES = 4; // Rows per band considered for two-row perturbations
+    private static final Metrics.Timer QUERY = Metrics.timer("query");
+    private static final Metrics.Histogram QUERY_CANDIDATES = Metrics.histogram("query.candidates");
+    private static final Metrics.Histogram QUERY_RESULTS = Metrics.histogram("query.results");
+
+    private final int bands;
+    private final int rows;
+    private final BandTable[] tables;
+    private int[][] signatures = new int[16][]; // Indexed by doc id; null when absent
+    private int size;
+
+    public static class Candidate {
+        public final int id;
+        public final double similarity;
+
+        Candidate(int id, double similarity) {
+            this.id = id;
+            this.similarity = similarity;
+        }
+
+        @Override
+        public String toString() {
+            return id + " (" + String.format("%.4f", similarity) + ")";
+        }
+    }
+
+    public LSHIndex(int bands, int rows) {
+        this.bands = bands;
+        this.rows = rows;
+        this.tables = new BandTable[bands];
+        for (int band = 0; band < bands; band++) {
+            tables[band] = new BandTable();
+        }
+    }
+
+    public int bands() {
+        return bands;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    BandTable table(int band) {
+        return tables[band];
+    }
+
+    // One past the largest id slot allocated so far
+    int idLimit() {
+        return signatures.length;
+    }
+
+    public int[] signature(int id) {
+        return id >= 0 && id < signatures.length ? signatures[id] : null;
+    }
+
+    // Adds or replaces the document's signature in every band table
+    public void insert(int id, int[] signature) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Document id must be non-negative: " + id);
+        }
+        if (signature.length < bands * rows) {
+            throw new IllegalArgumentException("Signature has " + signature.length + " slots, need " + bands * rows);
+        }
+        remove(id);
+        if (id >= signatures.length) {
+            signatures = Arrays.copyOf(signatures, Math.max(id + 1, signatures.length * 2));
+        }
+        int[] copy = signature.clone(); // remove() re-derives band keys, so callers must not change what we band
+        signatures[id] = copy;
+        // Empty sets are stored but not bucketed: they would all share one bucket
+        for (int band = 0; band < bands && !MinHashEngine.isEmpty(copy); band++) {
+            tables[band].add(Banding.bandKey(copy, band, rows), id);
+        }
+        size++;
+    }
+
+    public boolean remove(int id) {
+        int[] signature = signature(id);
+        if (signature == null)
+            return false;
+        for (int band = 0; band < bands && !MinHashEngine.isEmpty(signature); band++) {
+            tables[band].remove(Banding.bandKey(signature, band, rows), id);
+        }
+        signatures[id] = null;
+        size--;
+        return true;
+    }
+
+    // Documents sharing at least one bucket with the signature, estimated Jaccard >= threshold, best first
+    public List<Candidate> query(int[] signature, double threshold) {
+        return query(signature, threshold, -1);
+    }
+
+    public List<Candidate> query(int id, double threshold) {
+        int[] signature = signature(id);
+        return signature == null ? new ArrayList<>() : query(signature, threshold, id);
+    }
+
+    private List<Candidate> query(int[] signature, double threshold, int exclude) {
+        long start = Metrics.now();
+        List<Candidate> results = new ArrayList<>();
+        LongHashSet seen = new LongHashSet();
+        for (int band = 0; band < bands; band++) {
+            collect(band, Banding.bandKey(signature, band, rows), signature, threshold, exclude, seen, results);
+        }
+        rank(results);
+        recordQuery(start, seen.size(), results.size());
+        return results;
+    }
+
+    // Multi-probe query: besides each band's own bucket, looks up to `probes` neighbouring buckets whose
+    // keys swap one or two rows for the query's second minima (MinHashEngine.secondMinima). A similar
+    // document misses a row mostly when the query's minimizing element is absent from it, and then its
+    // minimum is likeliest to be the query's runner-up when that lies close above the minimum, so
+    // perturbations are tried by smallest total gap between minimum and second minimum
+    public List<Candidate> query(int[] signature, int[] secondMinima, double threshold, int probes) {
+        return query(signature, secondMinima, threshold, probes, -1);
+    }
+
+    public List<Candidate> query(int id, int[] secondMinima, double threshold, int probes) {
+        int[] signature = signature(id);
+        return signature == null ? new ArrayList<>() : query(signature, secondMinima, threshold, probes, id);
+    }
+
+    private List<Candidate> query(int[] signature, int[] secondMinima, double threshold, int probes, int exclude) {
+        long start = Metrics.now();
+        List<Candidate> results = new ArrayList<>();
+        LongHashSet seen = new LongHashSet();
+        for (int band = 0; band < bands; band++) {
+            collect(band, Banding.bandKey(signature, band, rows), signature, threshold, exclude, seen, results);
+        }
+        if (probes > 0) {
+            int[] probe = signature.clone();
+            for (int[] perturbation : perturbations(signature, secondMinima, probes)) {
+                int band = perturbation[0];
+                for (int k = 1; k < perturbation.length; k++) {
+                    probe[perturbation[k]] = secondMinima[perturbation[k]];
+                }
+                collect(band, Banding.bandKey(probe, band, rows), signature, threshold, exclude, seen, results);
+                for (int k = 1; k < perturbation.length; k++) {
+                    probe[perturbation[k]] = signature[perturbation[k]];
+                }
+            }
+        }
+        rank(results);
+        recordQuery(start, seen.size(), results.size());
+        return results;
+    }
+
+    // The `limit` most likely perturbations as {band, slot[, slot]}: every single row, plus pairs among
+    // each band's PAIR_CANDIDATES smallest-gap rows. Rows whose second minimum equals the minimum (same top
+    // 32 bits, or no second element) are skipped: swapping them would probe the band's own bucket again,
+    // and every remaining perturbation changes the key. Orders are sorted as packed primitive longs.
+    private int[][] perturbations(int[] signature, int[] secondMinima, int limit) {
+        int pairable = Math.min(rows, PAIR_CANDIDATES);
+        int capacity = bands * (rows + pairable * (pairable - 1) / 2);
+        int[] firstSlots = new int[capacity], secondSlots = new int[capacity];
+        long[] order = new long[capacity]; // gap << 30 | perturbation index; gaps stay below 2^33
+        int count = 0;
+        long[] byGap = new long[rows]; // gap << 31 | slot
+        for (int band = 0; band < bands; band++) {
+            int offset = band * rows;
+            int usable = 0;
+            for (int row = 0; row < rows; row++) {
+                int j = offset + row;
+                if (secondMinima[j] != MinHashEngine.EMPTY_SLOT && secondMinima[j] != signature[j])
+                    byGap[usable++] = gap(signature, secondMinima, j) << 31 | j;
+            }
+            Arrays.sort(byGap, 0, usable);
+            for (int i = 0; i < usable; i++) {
+                firstSlots[count] = (int) (byGap[i] & Integer.MAX_VALUE);
+                secondSlots[count] = -1;
+                order[count] = (byGap[i] >>> 31) << 30 | count;
+                count++;
+            }
+            for (int i = 0; i < Math.min(usable, pairable); i++) {
+                for (int j = i + 1; j < Math.min(usable, pairable); j++) {
+                    firstSlots[count] = (int) (byGap[i] & Integer.MAX_VALUE);
+                    secondSlots[count] = (int) (byGap[j] & Integer.MAX_VALUE);
+                    order[count] = ((byGap[i] >>> 31) + (byGap[j] >>> 31)) << 30 | count;
+                    count++;
+                }
+            }
+        }
+        Arrays.sort(order, 0, count);
+        int[][] ranked = new int[Math.min(limit, count)][];
+        for (int i = 0; i < ranked.length; i++) {
+            int p = (int) (order[i] & ((1 << 30) - 1));
+            ranked[i] = secondSlots[p] < 0 ? new int[] { firstSlots[p] / rows, firstSlots[p] }
+                    : new int[] { firstSlots[p] / rows, firstSlots[p], secondSlots[p] };
+        }
+        return ranked;
+    }
+
+    private static long gap(int[] signature, int[] secondMinima, int j) {
+        return (secondMinima[j] & 0xFFFFFFFFL) - (signature[j] & 0xFFFFFFFFL);
+    }
+
+    private void collect(int band, long key, int[] signature, double threshold, int exclude, LongHashSet seen,
+            List<Candidate> results) {
+        BandTable table = tables[band];
+        int slot = table.find(key);
+        if (slot < 0)
+            return;
+        int[] docs = table.postings(slot);
+        for (int i = 0; i < table.postingCount(slot); i++) {
+            int doc = docs[i];
+            if (doc == exclude || !seen.add(doc))
+                continue;
+            double similarity = MinHashEngine.estimateJaccard(signature, signatures[doc]);
+            if (similarity >= threshold) {
+                results.add(new Candidate(doc, similarity));
+            }
+        }
+    }
+
+    // Shared by all index variants: per-query latency, distinct docs examined, and results returned
+    static void recordQuery(long start, int candidates, int results) {
+        QUERY.record(start, 1);
+        QUERY_CANDIDATES.record(candidates);
+        QUERY_RESULTS.record(results);
+    }
+
+    // Best estimate first, ties by id
+    static void rank(List<Candidate> results) {
+        results.sort((c1, c2) -> c1.similarity != c2.similarity
+                ? Double.compare(c2.similarity, c1.similarity)
+                : Integer.compare(c1.id, c2.id));
+    }
+}
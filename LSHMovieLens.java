@@ -1,113 +1,90 @@
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
 
 public class LSHMovieLens {
-    private static final int NUM_USERS = 943;
-    private static final int NUM_MOVIES = 1682;
     private static final int[] NUM_HASH_FUNCTIONS = {50, 100, 200};
-    private static final int[][] LSH_CONFIGS = {
-            {5, 10},  // 50 hash functions
-            {5, 20},  // 100 hash functions
-            {5, 40},  // 200 hash functions
-            {10, 20}  // 200 hash functions, different banding
-    };
-    private static final Random random = new Random();
-    private static final List<int[]> hashFunctions = new ArrayList<>();
-    private static final Map<Integer, Set<Integer>> userMovieRatings = new HashMap<>();
+    private static final double[] THRESHOLDS = {0.6, 0.8};
+    private static final double MAX_FALSE_NEGATIVE_RATE = 0.05;
+    private static final double MAX_FALSE_POSITIVE_RATE = 0.05;
+    private static final int SAMPLE_PAIRS = 20000;
+    private static final double PILOT_MISS_RATE = 0.001; // Chance the tuning pilot misses a pair at the threshold
+    private static final boolean VALIDATE_TUNING = Boolean.getBoolean("lsh.validateTuning");
+    private static final double NEIGHBOUR_THRESHOLD = 0.3; // Typical similarity of a user's nearest neighbours
+    private static final int NEIGHBOURS = 10;
+    private static final int MULTI_PROBE_ROWS = 5;
+    private static final int MULTI_PROBE_BANDS = 20; // Halved into 10 bands plus 10 probes
+    private static final int RECOMMENDATIONS = 5;
+    private static final int HOT_BUCKET_LIMIT = 64; // Buckets beyond this are split by spare rows, or sampled
+    private static Random random = new Random();
+    private static InteractionLog log;
 
     public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            random = new Random(Long.parseLong(args[0])); // Fixed seed for reproducible runs
+        }
         loadMovieLensData("u.data");
+        long[] samplePairs = sampleUserPairs(SAMPLE_PAIRS);
+        double[] sample = new double[samplePairs.length];
+        for (int i = 0; i < samplePairs.length; i++) {
+            sample[i] = computeJaccard(Banding.first(samplePairs[i]), Banding.second(samplePairs[i]));
+        }
 
-        for (int i = 0; i < NUM_HASH_FUNCTIONS.length; i++) {
-            int numHashes = NUM_HASH_FUNCTIONS[i];
-            generateHashFunctions(numHashes);
-            int[][] signatures = generateSignatures(numHashes);
-            int r = LSH_CONFIGS[i][0], b = LSH_CONFIGS[i][1];
-            performLSH(signatures, numHashes, r, b, 0.6);
-            performLSH(signatures, numHashes, r, b, 0.8);
+        for (int numHashes : NUM_HASH_FUNCTIONS) {
+            MinHashEngine engine = new MinHashEngine(numHashes, random.nextLong());
+            int[][] signatures = generateSignatures(engine);
+            double[] costs = measureCosts(signatures, samplePairs);
+            for (double threshold : THRESHOLDS) {
+                // (b, r) tuned for the cheapest query that keeps the predicted miss rate within bounds
+                BandTuner.Config config = tune(threshold, numHashes, signatures, costs, samplePairs, sample);
+                System.out.println("Tuned " + config);
+                performLSH(signatures, numHashes, config.rows, config.bands, threshold);
+                performMultiProbeLSH(engine, signatures, config.rows, config.bands, threshold);
+            }
+            if (numHashes == NUM_HASH_FUNCTIONS[NUM_HASH_FUNCTIONS.length - 1]) {
+                BandTuner.Config config = tune(NEIGHBOUR_THRESHOLD, numHashes, signatures, costs, samplePairs, sample);
+                recommendForAllUsers(signatures, config);
+                // Few similar pairs exist at the tuned thresholds; the neighbour threshold has thousands,
+                // enough to measure the recall probing buys back for an undersized band count
+                performMultiProbeLSH(engine, signatures, MULTI_PROBE_ROWS, MULTI_PROBE_BANDS, NEIGHBOUR_THRESHOLD);
+            }
         }
+        Metrics.dumpIfConfigured();
     }
 
     private static void loadMovieLensData(String fileName) throws IOException {
-        BufferedReader br = new BufferedReader(new FileReader(fileName));
-        String line;
-        while ((line = br.readLine()) != null) {
-            String[] parts = line.split("\t");
-            int user = Integer.parseInt(parts[0]);
-            int movie = Integer.parseInt(parts[1]);
-            userMovieRatings.computeIfAbsent(user, k -> new HashSet<>()).add(movie);
-        }
-        br.close();
+        log = InteractionLog.load(Paths.get(fileName));
     }
 
-    private static void generateHashFunctions(int numHashes) {
-        hashFunctions.clear();
-        for (int i = 0; i < numHashes; i++) {
-            int a = random.nextInt(NUM_MOVIES) + 1;
-            int b = random.nextInt(NUM_MOVIES) + 1;
-            hashFunctions.add(new int[]{a, b});
-        }
-    }
-
-    private static int[][] generateSignatures(int numHashes) {
-        int[][] signatures = new int[NUM_USERS + 1][numHashes];
-        for (int user = 1; user <= NUM_USERS; user++) {
-            Arrays.fill(signatures[user], Integer.MAX_VALUE);
-            Set<Integer> movies = userMovieRatings.getOrDefault(user, new HashSet<>());
-            for (int movie : movies) {
-                for (int i = 0; i < numHashes; i++) {
-                    int hash = (hashFunctions.get(i)[0] * movie + hashFunctions.get(i)[1]) % NUM_MOVIES;
-                    signatures[user][i] = Math.min(signatures[user][i], hash);
-                }
-            }
-        }
-        return signatures;
+    private static int[][] generateSignatures(SignatureGenerator generator) {
+        return ParallelPipeline.signatures(generator, log);
     }
 
     private static void performLSH(int[][] signatures, int numHashes, int r, int b, double similarityThreshold) {
         System.out.println("LSH with " + numHashes + " hashes, r=" + r + ", b=" + b + ", threshold=" + similarityThreshold);
-        Map<String, List<Integer>> hashBuckets = new HashMap<>();
-        Set<String> candidatePairs = new HashSet<>();
-
-        for (int user = 1; user <= NUM_USERS; user++) {
-            for (int band = 0; band < b; band++) {
-                StringBuilder bandHash = new StringBuilder();
-                for (int row = 0; row < r; row++) {
-                    bandHash.append(signatures[user][band * r + row]).append("-");
-                }
-                String key = bandHash.toString();
-                hashBuckets.computeIfAbsent(key, k -> new ArrayList<>()).add(user);
-            }
-        }
-
-        for (List<Integer> users : hashBuckets.values()) {
-            if (users.size() > 1) {
-                for (int i = 0; i < users.size(); i++) {
-                    for (int j = i + 1; j < users.size(); j++) {
-                        candidatePairs.add(users.get(i) + "-" + users.get(j));
-                    }
-                }
-            }
-        }
+        BandTable[] tables = ParallelPipeline.buildTables(signatures, 1, log.userLimit(), b, r);
+        System.out.println("Buckets: " + BucketStats.of(tables, HOT_BUCKET_LIMIT));
+        int spareRows = numHashes - b * r;
+        HotBucketPolicy policy = spareRows > 0 ? HotBucketPolicy.subBand(HOT_BUCKET_LIMIT, Math.min(r, spareRows), 0)
+                : HotBucketPolicy.sample(HOT_BUCKET_LIMIT, 0);
+        LongHashSet candidatePairs = ParallelPipeline.candidatePairs(tables, signatures, r, policy);
+        System.out.println("Candidate Pairs (" + policy + "): " + candidatePairs.size());
 
         int falsePositives = 0, falseNegatives = 0, truePositives = 0, totalPairs = 0;
-        for (String pair : candidatePairs) {
-            String[] parts = pair.split("-");
-            int user1 = Integer.parseInt(parts[0]);
-            int user2 = Integer.parseInt(parts[1]);
+        for (long pair : candidatePairs.toArray()) {
+            int user1 = Banding.first(pair);
+            int user2 = Banding.second(pair);
 
-            double approxJaccard = computeMinHashJaccard(signatures[user1], signatures[user2]);
-            double exactJaccard = computeJaccard(
-                    userMovieRatings.getOrDefault(user1, new HashSet<>()),
-                    userMovieRatings.getOrDefault(user2, new HashSet<>()));
+            double approxJaccard = MinHashEngine.estimateJaccard(signatures[user1], signatures[user2]);
+            boolean exactSimilar = isSimilar(user1, user2, similarityThreshold);
 
             if (approxJaccard >= similarityThreshold) {
-                if (exactJaccard >= similarityThreshold) {
+                if (exactSimilar) {
                     truePositives++;
                 } else {
                     falsePositives++;
                 }
-            } else if (exactJaccard >= similarityThreshold) {
+            } else if (exactSimilar) {
                 falseNegatives++;
             }
             totalPairs++;
@@ -116,23 +93,216 @@ public class LSHMovieLens {
         System.out.println("True Positives: " + truePositives);
         System.out.println("False Positives: " + falsePositives);
         System.out.println("False Negatives: " + falseNegatives);
+
+        // Ground truth from the exact join: similar pairs LSH never proposed
+        int missedPairs = 0;
+        for (long pair : SimilarityJoin.pairs(log, similarityThreshold).toArray()) {
+            if (!candidatePairs.contains(pair))
+                missedPairs++;
+        }
+        System.out.println("Missed Pairs: " + missedPairs);
+        System.out.println();
+    }
+
+    // Half the bands, with the dropped bands' lookups spent on probing neighbouring buckets instead
+    private static void performMultiProbeLSH(MinHashEngine engine, int[][] signatures, int r, int b,
+            double similarityThreshold) {
+        int bands = Math.max(1, b / 2), probes = b - bands;
+        System.out.println("Multi-probe LSH with r=" + r + ", b=" + bands + ", probes=" + probes
+                + ", threshold=" + similarityThreshold);
+        LSHIndex index = new LSHIndex(bands, r);
+        for (int user = 1; user < log.userLimit(); user++) {
+            index.insert(user, signatures[user]);
+        }
+        long[] similarPairs = SimilarityJoin.pairs(log, similarityThreshold).toArray();
+        int[][] secondMinima = new int[log.userLimit()][];
+        for (int user = 1; user < log.userLimit(); user++) {
+            secondMinima[user] = engine.secondMinima(log.items(), log.start(user), log.end(user));
+        }
+        for (int p : new int[] { 0, probes }) { // Same index without and with probing, for the recall gain
+            long start = System.nanoTime();
+            LongHashSet found = new LongHashSet();
+            for (int user = 1; user < log.userLimit(); user++) {
+                for (LSHIndex.Candidate candidate : index.query(user, secondMinima[user], similarityThreshold, p)) {
+                    if (isSimilar(user, candidate.id, similarityThreshold))
+                        found.add(Banding.pair(user, candidate.id));
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            int missedPairs = 0;
+            for (long pair : similarPairs) {
+                if (!found.contains(pair))
+                    missedPairs++;
+            }
+            System.out.printf("Probes %d: %d true positives, %d missed, recall %.4f, %.1f ms\n", p, found.size(),
+                    missedPairs, similarPairs.length == 0 ? 1 : (double) found.size() / similarPairs.length,
+                    elapsed / 1e6);
+        }
+        System.out.println();
+    }
+
+    // Batched top-k neighbours for every user, scored by recall against brute-force exact top-k
+    private static void recommendForAllUsers(int[][] signatures, BandTuner.Config config) {
+        System.out.println("Top-" + NEIGHBOURS + " neighbours with r=" + config.rows + ", b=" + config.bands);
+        LSHIndex index = new LSHIndex(config.bands, config.rows);
+        int[] users = new int[log.userLimit() - 1];
+        for (int user = 1; user < log.userLimit(); user++) {
+            index.insert(user, signatures[user]);
+            users[user - 1] = user;
+        }
+        Recommender recommender = new Recommender(log, index);
+
+        long start = System.nanoTime();
+        List<List<LSHIndex.Candidate>> neighbours = recommender.nearest(users, NEIGHBOURS);
+        long elapsed = System.nanoTime() - start;
+
+        long found = 0, expected = 0;
+        TopKHeap exact = new TopKHeap(NEIGHBOURS);
+        int[] exactIds = new int[NEIGHBOURS];
+        double[] exactScores = new double[NEIGHBOURS];
+        for (int user : users) {
+            exact.clear();
+            for (int other : users) {
+                if (other != user)
+                    exact.offer(other, computeJaccard(user, other));
+            }
+            int count = exact.drain(exactIds, exactScores);
+            double kthBest = exactScores[count - 1];
+            for (LSHIndex.Candidate candidate : neighbours.get(user - 1)) {
+                if (candidate.similarity >= kthBest)
+                    found++; // Ties with the k-th exact neighbour count as hits
+            }
+            expected += count;
+        }
+        System.out.printf("Recall@%d: %.4f\n", NEIGHBOURS, (double) found / expected);
+        System.out.printf("Batched %d users in %.1f ms (%.1f us/user)\n", users.length, elapsed / 1e6,
+                elapsed / 1e3 / users.length);
+        System.out.println("User 1 neighbours: " + neighbours.get(0));
+        System.out.println("User 1 recommendations: " + recommender.recommend(1, NEIGHBOURS, RECOMMENDATIONS));
         System.out.println();
     }
 
-    private static double computeJaccard(Set<Integer> set1, Set<Integer> set2) {
-        Set<Integer> intersection = new HashSet<>(set1);
-        intersection.retainAll(set2);
-        Set<Integer> union = new HashSet<>(set1);
-        union.addAll(set2);
-        return (double) intersection.size() / union.size();
+    // Random distinct pairs of users with at least one rating
+    private static long[] sampleUserPairs(int count) {
+        int[] users = new int[log.userLimit()];
+        int n = 0;
+        for (int user = 1; user < log.userLimit(); user++) {
+            if (log.size(user) > 0)
+                users[n++] = user;
+        }
+        long[] pairs = new long[count];
+        for (int i = 0; i < count; i++) {
+            int user1 = users[random.nextInt(n)], user2;
+            do {
+                user2 = users[random.nextInt(n)];
+            } while (user2 == user1);
+            pairs[i] = Banding.pair(user1, user2);
+        }
+        return pairs;
     }
 
-    private static double computeMinHashJaccard(int[] sig1, int[] sig2) {
-        int matches = 0;
-        for (int i = 0; i < sig1.length; i++) {
-            if (sig1[i] == sig2[i])
-                matches++;
+    // Random pairs cover the dissimilar side well, but the similar side is too rare for them (a handful of
+    // 20000 pairs), so the pairs are stratified by a loose pilot banding of the same signatures: its
+    // candidates hold nearly every pair at or above the threshold, and a sample of them shapes the recall
+    // side. Random pairs outside the candidates stand for the rest. -Dlsh.validateTuning=true compares the
+    // estimated above-threshold mass with the exact join.
+    private static BandTuner.Config tune(double threshold, int numHashes, int[][] signatures, double[] costs,
+            long[] samplePairs, double[] sample) {
+        int pilotRows = pilotRows(threshold, numHashes);
+        BandTable[] pilotTables = ParallelPipeline.buildTables(signatures, 1, log.userLimit(),
+                numHashes / pilotRows, pilotRows);
+        LongHashSet pilot = ParallelPipeline.candidatePairs(pilotTables);
+        long[] candidates = pilot.toArray();
+        int drawn = Math.min(SAMPLE_PAIRS, candidates.length);
+        double[] candidateSample = new double[drawn];
+        for (int i = 0; i < drawn; i++) { // Partial Fisher-Yates: a sample without replacement
+            int j = i + random.nextInt(candidates.length - i);
+            long pair = candidates[j];
+            candidates[j] = candidates[i];
+            candidateSample[i] = computeJaccard(Banding.first(pair), Banding.second(pair));
+        }
+
+        double[] outside = new double[sample.length];
+        int kept = 0;
+        for (int i = 0; i < sample.length; i++) {
+            if (!pilot.contains(samplePairs[i]))
+                outside[kept++] = sample[i];
         }
-        return (double) matches / sig1.length;
+        outside = Arrays.copyOf(outside, kept);
+        long users = 0;
+        for (int user = 1; user < log.userLimit(); user++) {
+            if (log.size(user) > 0)
+                users++;
+        }
+        double candidateWeight = drawn == 0 ? 0 : (double) candidates.length / drawn;
+        double outsideWeight = kept == 0 ? 0 : (users * (users - 1) / 2.0 - candidates.length) / kept;
+        if (VALIDATE_TUNING) {
+            double estimated = outsideWeight * countAtOrAbove(outside, threshold)
+                    + candidateWeight * countAtOrAbove(candidateSample, threshold);
+            System.out.printf("Pairs with Jaccard >= %.2f: estimated %.0f (pilot r=%d, %d candidates), exact %d%n",
+                    threshold, estimated, pilotRows, candidates.length, SimilarityJoin.pairs(log, threshold).size());
+        }
+        return new BandTuner(threshold, MAX_FALSE_NEGATIVE_RATE, MAX_FALSE_POSITIVE_RATE, costs[0], costs[1])
+                .withStrata(new double[][] { outside, candidateSample }, new double[] { outsideWeight, candidateWeight })
+                .tune(numHashes, log.userLimit() - 1);
+    }
+
+    // Most rows per band (fewest candidates) at which the pilot still proposes a pair at the threshold
+    // with probability at least 1 - PILOT_MISS_RATE
+    private static int pilotRows(double threshold, int numHashes) {
+        int rows = 1;
+        while (rows < numHashes
+                && BandTuner.probability(threshold, numHashes / (rows + 1), rows + 1) >= 1 - PILOT_MISS_RATE) {
+            rows++;
+        }
+        return rows;
+    }
+
+    private static int countAtOrAbove(double[] similarities, double threshold) {
+        int count = 0;
+        for (double s : similarities) {
+            if (s >= threshold)
+                count++;
+        }
+        return count;
+    }
+
+    // Measured nanoseconds per band lookup (band key plus bucket probe) and per candidate verification. A
+    // verification is timed as a full overlap count, since the threshold's size bound would reject most
+    // random pairs early and understate what a real candidate costs
+    private static double[] measureCosts(int[][] signatures, long[] samplePairs) {
+        int rows = 5;
+        BandTable table = Banding.buildTables(signatures, 1, log.userLimit(), 1, rows)[0];
+        long hits = 0, overlap = 0, lookupNanos = 0, verifyNanos = 0;
+        for (int round = 0; round < 2; round++) { // First round warms up
+            hits = overlap = 0;
+            long start = System.nanoTime();
+            for (int user = 1; user < log.userLimit(); user++) {
+                if (table.find(Banding.bandKey(signatures[user], 0, rows)) >= 0)
+                    hits++;
+            }
+            lookupNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (long pair : samplePairs) {
+                int user1 = Banding.first(pair), user2 = Banding.second(pair);
+                overlap += JaccardVerifier.intersectionSize(log.items(), log.start(user1), log.end(user1),
+                        log.items(), log.start(user2), log.end(user2));
+            }
+            verifyNanos = System.nanoTime() - start;
+        }
+        double[] costs = { (double) lookupNanos / (log.userLimit() - 1), (double) verifyNanos / samplePairs.length };
+        System.out.printf("Costs: %.0f ns per band lookup (%d/%d hit), %.0f ns per verification (mean overlap %.1f)\n",
+                costs[0], hits, log.userLimit() - 1, costs[1], (double) overlap / samplePairs.length);
+        return costs;
+    }
+
+    private static double computeJaccard(int user1, int user2) {
+        return JaccardVerifier.jaccard(log.items(), log.start(user1), log.end(user1),
+                log.items(), log.start(user2), log.end(user2));
+    }
+
+    private static boolean isSimilar(int user1, int user2, double threshold) {
+        return JaccardVerifier.passes(log.items(), log.start(user1), log.end(user1),
+                log.items(), log.start(user2), log.end(user2), threshold);
     }
 }
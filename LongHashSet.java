@@ -0,0 +1,104 @@
+import java.util.function.LongConsumer;
+
+// Open-addressing set of primitive longs; 0 is tracked out of band since it marks empty slots
+public class LongHashSet {
+    static final int MAX_CAPACITY = 1 << 30; // Largest power-of-two table an int-indexed array can hold
+
+    private long[] keys;
+    private int size;
+    private boolean hasZero;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expectedSize) {
+        keys = new long[tableSizeFor(expectedSize)];
+    }
+
+    public int size() {
+        return size + (hasZero ? 1 : 0);
+    }
+
+    public boolean add(long key) {
+        if (key == 0) {
+            boolean added = !hasZero;
+            hasZero = true;
+            return added;
+        }
+        int mask = keys.length - 1;
+        int slot = (int) Hashing.mix64(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        if (++size * 2 > keys.length) {
+            rehash();
+        }
+        return true;
+    }
+
+    public boolean contains(long key) {
+        if (key == 0)
+            return hasZero;
+        int mask = keys.length - 1;
+        int slot = (int) Hashing.mix64(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key)
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public void forEach(LongConsumer action) {
+        if (hasZero)
+            action.accept(0);
+        for (long key : keys) {
+            if (key != 0)
+                action.accept(key);
+        }
+    }
+
+    public long[] toArray() {
+        long[] result = new long[size()];
+        int i = 0;
+        if (hasZero)
+            result[i++] = 0;
+        for (long key : keys) {
+            if (key != 0)
+                result[i++] = key;
+        }
+        return result;
+    }
+
+    private void rehash() {
+        if (keys.length == MAX_CAPACITY) {
+            throw new IllegalStateException("Set exceeds " + MAX_CAPACITY / 2 + " keys");
+        }
+        long[] old = keys;
+        keys = new long[old.length * 2];
+        size = 0;
+        for (long key : old) {
+            if (key != 0)
+                add(key);
+        }
+    }
+
+    // Smallest power of two >= 16 keeping expectedSize entries at most half full; computed in long so
+    // large sizes neither overflow nor loop forever
+    static int tableSizeFor(int expectedSize) {
+        long needed = expectedSize * 2L;
+        if (needed > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Expected size " + expectedSize + " exceeds the " + MAX_CAPACITY / 2
+                    + " entries a table can hold");
+        }
+        int capacity = 16;
+        while (capacity < needed) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,330 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Read-only LSH index over a memory-mapped file. Layout (version 1, big-endian):
+//   header:     int magic, int version, int numHashes, int bands, int rows, int docLimit
+//   seeds:      long a[numHashes], long b[numHashes]
+//   presence:   byte[docLimit], 1 if the doc id has a signature
+//   signatures: int[docLimit][numHashes]
+//   per band:   int capacity, int postingTotal, long keys[capacity], int offsets[capacity] (-1 = empty),
+//               int counts[capacity], int postings[postingTotal]
+public class MappedLSHIndex {
+    private static final int MAGIC = 0x4D484C53; // "MHLS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final int TABLE_HEADER_BYTES = 8;
+    // Band tables are mapped in segments of this many bytes, each extended by SEGMENT_OVERLAP so a value
+    // starting in a segment is always wholly inside it
+    private static final long SEGMENT_BYTES = 1L << 30;
+    private static final int SEGMENT_OVERLAP = Long.BYTES;
+
+    private final MinHashEngine engine;
+    private final int numHashes;
+    private final int bands;
+    private final int rows;
+    private final int docLimit;
+    private final MappedByteBuffer presence;
+    private final MappedByteBuffer[] signatureChunks;
+    private final int docsPerChunk;
+    private final MappedByteBuffer[] tableSegments; // The band table section, SEGMENT_BYTES apart
+    private final long tablesStart;
+    private final long[] tablePositions; // File offset of each band's table header
+    private final int[] capacities;
+
+    private MappedLSHIndex(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readAt(channel, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not an LSH index file: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported index version " + version + " in " + path);
+            }
+            numHashes = header.getInt();
+            bands = header.getInt();
+            rows = header.getInt();
+            docLimit = header.getInt();
+
+            long position = HEADER_BYTES;
+            ByteBuffer seeds = readAt(channel, position, numHashes * 16);
+            long[] a = new long[numHashes], b = new long[numHashes];
+            seeds.asLongBuffer().get(a).get(b);
+            engine = new MinHashEngine(a, b);
+            position += numHashes * 16L;
+
+            presence = channel.map(FileChannel.MapMode.READ_ONLY, position, docLimit);
+            position += docLimit;
+
+            // Chunked so the signature section may exceed the 2 GB limit of a single mapping
+            long docBytes = numHashes * 4L;
+            docsPerChunk = (int) Math.max(1, Integer.MAX_VALUE / docBytes);
+            signatureChunks = new MappedByteBuffer[(docLimit + docsPerChunk - 1) / docsPerChunk];
+            for (int chunk = 0; chunk < signatureChunks.length; chunk++) {
+                int docs = Math.min(docsPerChunk, docLimit - chunk * docsPerChunk);
+                signatureChunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY, position, docs * docBytes);
+                position += docs * docBytes;
+            }
+
+            // Segmented like the signatures, so a band table may exceed 2 GB as well; offsets are long
+            tablesStart = position;
+            tablePositions = new long[bands];
+            capacities = new int[bands];
+            for (int band = 0; band < bands; band++) {
+                ByteBuffer tableHeader = readAt(channel, position, TABLE_HEADER_BYTES);
+                int capacity = tableHeader.getInt();
+                int postingTotal = tableHeader.getInt();
+                tablePositions[band] = position;
+                capacities[band] = capacity;
+                position += TABLE_HEADER_BYTES + capacity * 16L + postingTotal * 4L;
+            }
+            long tablesEnd = position;
+            if (tablesEnd > channel.size()) {
+                throw new IOException("Truncated index file: tables end at " + tablesEnd + ", file has "
+                        + channel.size() + " bytes");
+            }
+            tableSegments = new MappedByteBuffer[(int) ((tablesEnd - tablesStart + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            for (int segment = 0; segment < tableSegments.length; segment++) {
+                long from = tablesStart + segment * SEGMENT_BYTES;
+                long size = Math.min(SEGMENT_BYTES + SEGMENT_OVERLAP, tablesEnd - from);
+                tableSegments[segment] = channel.map(FileChannel.MapMode.READ_ONLY, from, size);
+            }
+        }
+    }
+
+    public static MappedLSHIndex open(Path path) throws IOException {
+        return new MappedLSHIndex(path);
+    }
+
+    // Writes a sibling temp file, forces it to disk and atomically renames it over path, so a crash or a
+    // full disk mid-write leaves the previous index intact
+    public static void write(Path path, MinHashEngine engine, LSHIndex index) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel),
+                        1 << 16));
+                writeIndex(out, engine, index);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    private static void writeIndex(DataOutputStream out, MinHashEngine engine, LSHIndex index) throws IOException {
+        int numHashes = engine.numHashes();
+        int docLimit = index.idLimit();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(numHashes);
+        out.writeInt(index.bands());
+        out.writeInt(index.rows());
+        out.writeInt(docLimit);
+
+        for (long a : engine.multipliers()) {
+            out.writeLong(a);
+        }
+        for (long b : engine.offsets()) {
+            out.writeLong(b);
+        }
+
+        for (int id = 0; id < docLimit; id++) {
+            out.writeByte(index.signature(id) != null ? 1 : 0);
+        }
+        for (int id = 0; id < docLimit; id++) {
+            int[] signature = index.signature(id);
+            if (signature != null && signature.length != numHashes) {
+                throw new IllegalArgumentException("Doc " + id + " has " + signature.length
+                        + " slots, engine has " + numHashes);
+            }
+            for (int j = 0; j < numHashes; j++) {
+                out.writeInt(signature == null ? 0 : signature[j]);
+            }
+        }
+
+        for (int band = 0; band < index.bands(); band++) {
+            writeTable(out, index.table(band));
+        }
+    }
+
+    // Re-lays the bucket out at a compact capacity, probing exactly as BandTable.find does
+    private static void writeTable(DataOutputStream out, BandTable table) throws IOException {
+        int buckets = 0, postingTotal = 0;
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            if (table.postingCount(slot) > 0) {
+                buckets++;
+                postingTotal += table.postingCount(slot);
+            }
+        }
+        int capacity = LongHashSet.tableSizeFor(buckets);
+        int mask = capacity - 1;
+        long[] keys = new long[capacity];
+        int[] offsets = new int[capacity];
+        int[] counts = new int[capacity];
+        int[] postings = new int[postingTotal];
+        Arrays.fill(offsets, -1);
+        int next = 0;
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            int count = table.postingCount(slot);
+            if (count == 0)
+                continue;
+            int target = (int) Hashing.mix64(table.key(slot)) & mask;
+            while (offsets[target] != -1) {
+                target = (target + 1) & mask;
+            }
+            keys[target] = table.key(slot);
+            offsets[target] = next;
+            counts[target] = count;
+            System.arraycopy(table.postings(slot), 0, postings, next, count);
+            next += count;
+        }
+
+        out.writeInt(capacity);
+        out.writeInt(postingTotal);
+        for (long key : keys) {
+            out.writeLong(key);
+        }
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        for (int count : counts) {
+            out.writeInt(count);
+        }
+        for (int doc : postings) {
+            out.writeInt(doc);
+        }
+    }
+
+    public MinHashEngine engine() {
+        return engine;
+    }
+
+    public int numHashes() {
+        return numHashes;
+    }
+
+    public int bands() {
+        return bands;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public boolean contains(int id) {
+        return id >= 0 && id < docLimit && presence.get(id) != 0;
+    }
+
+    // Reads one slot straight from the mapping
+    public int slot(int id, int j) {
+        return signatureChunks[id / docsPerChunk].getInt(((id % docsPerChunk) * numHashes + j) * 4);
+    }
+
+    public int[] signature(int id) {
+        if (!contains(id))
+            return null;
+        int[] signature = new int[numHashes];
+        for (int j = 0; j < numHashes; j++) {
+            signature[j] = slot(id, j);
+        }
+        return signature;
+    }
+
+    public double estimateJaccard(int[] signature, int id) {
+        ByteBuffer chunk = signatureChunks[id / docsPerChunk];
+        int base = (id % docsPerChunk) * numHashes * 4;
+        if (MinHashEngine.isEmpty(signature) || chunk.getInt(base) == MinHashEngine.EMPTY_SLOT)
+            return 0; // As MinHashEngine.estimateJaccard
+        int matches = 0;
+        for (int j = 0; j < numHashes; j++) {
+            if (chunk.getInt(base + j * 4) == signature[j])
+                matches++;
+        }
+        return (double) matches / numHashes;
+    }
+
+    // Same semantics as LSHIndex.query, reading buckets and signatures from the mapping
+    public List<LSHIndex.Candidate> query(int[] signature, double threshold) {
+        return query(signature, threshold, -1);
+    }
+
+    // Neighbours of a stored doc, excluding the doc itself
+    public List<LSHIndex.Candidate> query(int id, double threshold) {
+        int[] signature = signature(id);
+        return signature == null ? new ArrayList<>() : query(signature, threshold, id);
+    }
+
+    private List<LSHIndex.Candidate> query(int[] signature, double threshold, int exclude) {
+        long start = Metrics.now();
+        List<LSHIndex.Candidate> results = new ArrayList<>();
+        LongHashSet seen = new LongHashSet();
+        for (int band = 0; band < bands; band++) {
+            int capacity = capacities[band];
+            long keysBase = tablePositions[band] + TABLE_HEADER_BYTES;
+            long offsetsBase = keysBase + capacity * 8L;
+            long countsBase = offsetsBase + capacity * 4L;
+            long postingsBase = countsBase + capacity * 4L;
+
+            long key = Banding.bandKey(signature, band, rows);
+            int mask = capacity - 1;
+            int slot = (int) Hashing.mix64(key) & mask;
+            int offset;
+            while ((offset = tableInt(offsetsBase + slot * 4L)) != -1 && tableLong(keysBase + slot * 8L) != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (offset == -1)
+                continue;
+            int count = tableInt(countsBase + slot * 4L);
+            for (int i = 0; i < count; i++) {
+                int doc = tableInt(postingsBase + ((long) offset + i) * 4);
+                if (doc == exclude || !seen.add(doc))
+                    continue;
+                double similarity = estimateJaccard(signature, doc);
+                if (similarity >= threshold) {
+                    results.add(new LSHIndex.Candidate(doc, similarity));
+                }
+            }
+        }
+        LSHIndex.rank(results);
+        LSHIndex.recordQuery(start, seen.size(), results.size());
+        return results;
+    }
+
+    private int tableInt(long position) {
+        long relative = position - tablesStart;
+        return tableSegments[(int) (relative / SEGMENT_BYTES)].getInt((int) (relative % SEGMENT_BYTES));
+    }
+
+    private long tableLong(long position) {
+        long relative = position - tablesStart;
+        return tableSegments[(int) (relative / SEGMENT_BYTES)].getLong((int) (relative % SEGMENT_BYTES));
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Truncated index file at offset " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters, histograms and stage timers for the pipeline. Recording is lock-free (LongAdder,
+// atomic bucket arrays) and compiles away when run with -Dmetrics.disabled=true. -Dmetrics.json=<path>
+// makes the drivers dump everything as JSON on exit.
+public final class Metrics {
+    static final boolean ENABLED = !Boolean.getBoolean("metrics.disabled");
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, String[]> ratios = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    public static Timer timer(String name) {
+        return timers.computeIfAbsent(name, n -> new Timer());
+    }
+
+    // Reported in the dump as counter(numerator) / counter(denominator)
+    public static void ratio(String name, String numerator, String denominator) {
+        ratios.put(name, new String[] { numerator, denominator });
+    }
+
+    public static double ratio(String name) {
+        String[] parts = ratios.get(name);
+        if (parts == null)
+            return Double.NaN;
+        long denominator = counter(parts[1]).get();
+        return denominator == 0 ? Double.NaN : (double) counter(parts[0]).get() / denominator;
+    }
+
+    // Start timestamp for Timer.record; 0 when disabled, so disabled builds skip the clock read
+    public static long now() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    public static void reset() {
+        counters.values().forEach(Counter::reset);
+        histograms.values().forEach(Histogram::reset);
+        timers.values().forEach(Timer::reset);
+    }
+
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            if (ENABLED)
+                value.increment();
+        }
+
+        public void add(long n) {
+            if (ENABLED)
+                value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+
+        void reset() {
+            value.reset();
+        }
+    }
+
+    // Log-linear buckets in the style of HdrHistogram: exact below 16, then 8 sub-buckets per power of two,
+    // so any recorded value is reported within 12.5% while the whole long range fits in 488 counters
+    public static final class Histogram {
+        private static final int LINEAR = 16;
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = LINEAR + (63 - 4) * SUB_BUCKETS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder total = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        // Negative values are recorded as 0
+        public void record(long value) {
+            if (!ENABLED)
+                return;
+            value = Math.max(0, value);
+            counts.incrementAndGet(index(value));
+            total.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        // An unsynchronized buffer for one worker's hot loop; flush() merges it with one atomic add per
+        // non-empty bucket instead of one per value
+        public Local local() {
+            return new Local();
+        }
+
+        public long count() {
+            return total.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public double mean() {
+            long n = total.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        // Upper bound of the bucket holding the q-quantile, capped at the maximum seen
+        public long percentile(double q) {
+            long n = total.sum();
+            if (n == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts.get(i);
+                if (seen >= rank)
+                    return Math.min(upperBound(i), max.get());
+            }
+            return max.get();
+        }
+
+        static int index(long value) {
+            if (value < LINEAR)
+                return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - 3)) & (SUB_BUCKETS - 1);
+            return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+        }
+
+        static long upperBound(int index) {
+            if (index < LINEAR)
+                return index;
+            int exponent = (index - LINEAR) / SUB_BUCKETS + 4;
+            long sub = (index - LINEAR) % SUB_BUCKETS;
+            long lower = (SUB_BUCKETS + sub) << (exponent - 3);
+            return lower + (1L << (exponent - 3)) - 1;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            total.reset();
+            sum.reset();
+            max.reset();
+        }
+
+        public final class Local {
+            private final long[] localCounts = new long[BUCKETS];
+            private long localTotal;
+            private long localSum;
+            private long localMax;
+
+            public void record(long value) {
+                if (!ENABLED)
+                    return;
+                value = Math.max(0, value);
+                localCounts[index(value)]++;
+                localTotal++;
+                localSum += value;
+                localMax = Math.max(localMax, value);
+            }
+
+            public void flush() {
+                if (localTotal == 0)
+                    return;
+                for (int i = 0; i < BUCKETS; i++) {
+                    if (localCounts[i] != 0) {
+                        counts.addAndGet(i, localCounts[i]);
+                        localCounts[i] = 0;
+                    }
+                }
+                total.add(localTotal);
+                sum.add(localSum);
+                max.accumulate(localMax);
+                localTotal = localSum = localMax = 0;
+            }
+        }
+    }
+
+    // A stage: per-call latency plus the number of items (documents, pairs, ...) it processed
+    public static final class Timer {
+        private final Histogram latency = new Histogram();
+        private final LongAdder items = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        public void record(long start, long itemCount) {
+            if (!ENABLED)
+                return;
+            long elapsed = System.nanoTime() - start;
+            latency.record(elapsed);
+            items.add(itemCount);
+            nanos.add(elapsed);
+        }
+
+        public Histogram latency() {
+            return latency;
+        }
+
+        public long items() {
+            return items.sum();
+        }
+
+        public double itemsPerSecond() {
+            long elapsed = nanos.sum();
+            return elapsed == 0 ? 0 : items.sum() * 1e9 / elapsed;
+        }
+
+        void reset() {
+            latency.reset();
+            items.reset();
+            nanos.reset();
+        }
+    }
+
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"counters\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Counter> entry : new TreeMap<>(counters).entrySet()) {
+            json.append(separator).append("    \"").append(entry.getKey()).append("\": ").append(entry.getValue().get());
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"ratios\": {");
+        separator = "\n";
+        for (String name : new TreeMap<>(ratios).keySet()) {
+            json.append(separator).append("    \"").append(name).append("\": ").append(number(ratio(name)));
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"histograms\": {");
+        separator = "\n";
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            json.append(separator).append("    \"").append(entry.getKey()).append("\": ");
+            appendHistogram(json, entry.getValue());
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"timers\": {");
+        separator = "\n";
+        for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+            Timer timer = entry.getValue();
+            json.append(separator).append("    \"").append(entry.getKey()).append("\": {\"items\": ")
+                    .append(timer.items()).append(", \"itemsPerSecond\": ").append(number(timer.itemsPerSecond()))
+                    .append(", \"latencyNanos\": ");
+            appendHistogram(json, timer.latency());
+            json.append('}');
+            separator = ",\n";
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    public static void writeJson(Path path) throws IOException {
+        Files.write(path, toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Honors -Dmetrics.json=<path>; called by the drivers when they finish
+    public static void dumpIfConfigured() throws IOException {
+        String path = System.getProperty("metrics.json");
+        if (path != null)
+            writeJson(Paths.get(path));
+    }
+
+    private static void appendHistogram(StringBuilder json, Histogram histogram) {
+        json.append("{\"count\": ").append(histogram.count())
+                .append(", \"mean\": ").append(number(histogram.mean()))
+                .append(", \"p50\": ").append(histogram.percentile(0.5))
+                .append(", \"p90\": ").append(histogram.percentile(0.9))
+                .append(", \"p99\": ").append(histogram.percentile(0.99))
+                .append(", \"p999\": ").append(histogram.percentile(0.999))
+                .append(", \"max\": ").append(histogram.max()).append('}');
+    }
+
+    private static String number(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : String.format(Locale.ROOT, "%.4f", value);
+    }
+}
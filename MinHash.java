@@ -4,75 +4,80 @@ import java.nio.file.Paths;
 import java.util.*;
 
 public class MinHash {
-    private static final int M = 10000; // Large prime for hashing
+    private static final Random random = new Random();
+    private static final int SKETCH_HASHES = 300;
+    private static final int SKETCH_PRECISION = 12;
 
     public static void main(String[] args) throws IOException {
         // Read all documents
         String[] docNames = { "D1.txt", "D2.txt", "D3.txt", "D4.txt" };
-        List<Set<String>> kGramSets = new ArrayList<>();
+        List<long[]> kGramSets = new ArrayList<>();
 
         for (String doc : docNames) {
             String content = readFile(doc);
-            kGramSets.add(KGramJaccard.generateKGrams(content, 3)); // 3-grams
+            kGramSets.add(KGramJaccard.generateHashedKGrams(content, 3)); // 3-grams
         }
 
         // Compute MinHash signatures for different t values
         int[] tValues = { 20, 60, 150, 300, 600 };
         for (int t : tValues) {
-            int[][] signatures = computeMinHashSignatures(kGramSets, t);
+            long seed = random.nextLong();
+            int[][] signatures = ParallelPipeline.signatures(
+                    SignatureGenerator.create(SignatureGenerator.Scheme.K_PERMUTATION, t, seed), kGramSets);
+            int[][] ophSignatures = ParallelPipeline.signatures(
+                    SignatureGenerator.create(SignatureGenerator.Scheme.ONE_PERMUTATION, t, seed), kGramSets);
 
             System.out.println("\nFor t = " + t + ":");
-            computeAllPairwiseJaccard(signatures, docNames, kGramSets);
+            computeAllPairwiseJaccard(signatures, ophSignatures, docNames, kGramSets);
         }
+        compareSketches(docNames, kGramSets);
+        Metrics.dumpIfConfigured();
     }
 
     private static String readFile(String filepath) throws IOException {
         return new String(Files.readAllBytes(Paths.get(filepath))).toLowerCase().replaceAll("[^a-z ]", "");
     }
 
-    private static int[][] computeMinHashSignatures(List<Set<String>> sets, int t) {
-        int[][] signatures = new int[sets.size()][t];
-        Random rand = new Random();
-        int[] a = new int[t], b = new int[t];
-
-        // Generate t random hash functions
-        for (int i = 0; i < t; i++) {
-            a[i] = rand.nextInt(M - 1) + 1; // Avoid zero
-            b[i] = rand.nextInt(M);
+    // Set sizes and containment from MinHash + HyperLogLog sketches, against the exact shingle sets
+    private static void compareSketches(String[] docNames, List<long[]> kGramSets) {
+        MinHashEngine engine = new MinHashEngine(SKETCH_HASHES, random.nextLong());
+        SetSketch[] sketches = new SetSketch[kGramSets.size()];
+        System.out.println("\nSketches (t = " + SKETCH_HASHES + ", HLL precision = " + SKETCH_PRECISION + "):");
+        for (int i = 0; i < sketches.length; i++) {
+            sketches[i] = SetSketch.of(engine, SKETCH_PRECISION, kGramSets.get(i));
+            System.out.printf("|%s|: estimated = %.0f, exact = %d\n", docNames[i], sketches[i].size(),
+                    kGramSets.get(i).length);
         }
-
-        for (int i = 0; i < sets.size(); i++) {
-            Set<String> kGrams = sets.get(i);
-            for (int j = 0; j < t; j++) {
-                int minHash = Integer.MAX_VALUE;
-                for (String kGram : kGrams) {
-                    int hashValue = (a[j] * kGram.hashCode() + b[j]) % M;
-                    minHash = Math.min(minHash, hashValue);
-                }
-                signatures[i][j] = minHash;
+        for (int i = 0; i < sketches.length; i++) {
+            for (int j = 0; j < sketches.length; j++) {
+                if (i == j)
+                    continue;
+                long[] a = kGramSets.get(i), b = kGramSets.get(j);
+                double exact = JaccardVerifier.intersectionSize(a, b) / (double) a.length;
+                System.out.printf("Containment(%s in %s): sketch = %.4f, exact = %.4f\n", docNames[i], docNames[j],
+                        sketches[i].containmentIn(sketches[j]), exact);
             }
         }
-        return signatures;
     }
 
-    private static void computeAllPairwiseJaccard(int[][] signatures, String[] docNames, List<Set<String>> kGramSets) {
+    // Compares k-permutation and one-permutation estimates against exact Jaccard
+    private static void computeAllPairwiseJaccard(int[][] signatures, int[][] ophSignatures, String[] docNames,
+            List<long[]> kGramSets) {
         int numDocs = signatures.length;
+        double kPermError = 0, ophError = 0;
+        int pairs = 0;
         for (int i = 0; i < numDocs; i++) {
             for (int j = i + 1; j < numDocs; j++) {
-                double estimatedJaccard = estimateJaccard(signatures[i], signatures[j]);
-                double actualJaccard = KGramJaccard.jaccard(kGramSets.get(i), kGramSets.get(j));
-                System.out.printf("Jaccard(%s, %s): MinHash = %.4f, Exact = %.4f\n",
-                        docNames[i], docNames[j], estimatedJaccard, actualJaccard);
+                double estimatedJaccard = MinHashEngine.estimateJaccard(signatures[i], signatures[j]);
+                double ophJaccard = MinHashEngine.estimateJaccard(ophSignatures[i], ophSignatures[j]);
+                double actualJaccard = JaccardVerifier.jaccard(kGramSets.get(i), kGramSets.get(j));
+                System.out.printf("Jaccard(%s, %s): MinHash = %.4f, OPH = %.4f, Exact = %.4f\n",
+                        docNames[i], docNames[j], estimatedJaccard, ophJaccard, actualJaccard);
+                kPermError += Math.abs(estimatedJaccard - actualJaccard);
+                ophError += Math.abs(ophJaccard - actualJaccard);
+                pairs++;
             }
         }
-    }
-
-    private static double estimateJaccard(int[] sig1, int[] sig2) {
-        int matches = 0;
-        for (int i = 0; i < sig1.length; i++) {
-            if (sig1[i] == sig2[i])
-                matches++;
-        }
-        return (double) matches / sig1.length;
+        System.out.printf("Mean absolute error: MinHash = %.4f, OPH = %.4f\n", kPermError / pairs, ophError / pairs);
     }
 }
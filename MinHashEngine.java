@@ -0,0 +1,191 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+public class MinHashEngine implements SignatureGenerator {
+    static final long MERSENNE_61 = (1L << 61) - 1; // Prime modulus for the universal hash family
+    // Slot value of an empty set. Real slots never take it: slot() folds the one hash value that would map
+    // there onto its neighbour, so a signature is empty exactly when its slots are EMPTY_SLOT
+    static final int EMPTY_SLOT = -1;
+
+    private final long[] a, b;
+
+    public MinHashEngine(int numHashes, long seed) {
+        SplittableRandom rand = new SplittableRandom(seed);
+        a = new long[numHashes];
+        b = new long[numHashes];
+        for (int i = 0; i < numHashes; i++) {
+            a[i] = 1 + rand.nextLong(MERSENNE_61 - 1); // Avoid zero
+            b[i] = rand.nextLong(MERSENNE_61);
+        }
+    }
+
+    // Restores a persisted hash family; coefficients must lie in [0, 2^61-1)
+    public MinHashEngine(long[] a, long[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Coefficient arrays differ in length: " + a.length + " vs " + b.length);
+        }
+        this.a = a.clone();
+        this.b = b.clone();
+    }
+
+    @Override
+    public int numHashes() {
+        return a.length;
+    }
+
+    long[] multipliers() {
+        return a.clone();
+    }
+
+    long[] offsets() {
+        return b.clone();
+    }
+
+    // One pass over the shingles, updating all t minima per element
+    @Override
+    public int[] signature(long[] shingles) {
+        long[] mins = newMins();
+        for (long shingle : shingles) {
+            updateMins(mins, reduce(shingle));
+        }
+        return toSignature(mins);
+    }
+
+    @Override
+    public int[] signature(int[] items, int from, int to) {
+        long[] mins = newMins();
+        for (int i = from; i < to; i++) {
+            int item = items[i];
+            updateMins(mins, item & 0xFFFFFFFFL);
+        }
+        return toSignature(mins);
+    }
+
+    // Keeps only the t running minima, so memory per document is independent of its length
+    @Override
+    public Accumulator accumulator() {
+        return new Accumulator() {
+            private final long[] mins = newMins();
+
+            @Override
+            public void add(long shingle) {
+                updateMins(mins, reduce(shingle));
+            }
+
+            @Override
+            public int[] finish() {
+                int[] signature = toSignature(mins);
+                Arrays.fill(mins, Long.MAX_VALUE);
+                return signature;
+            }
+        };
+    }
+
+    // Second-smallest slot per hash (EMPTY_SLOT with fewer than two items): where a near-duplicate's
+    // minimum most likely lands when the query's own minimizing element is missing from it
+    public int[] secondMinima(long[] shingles) {
+        long[] mins = newMins(), seconds = newMins();
+        for (long shingle : shingles) {
+            updateTopTwo(mins, seconds, reduce(shingle));
+        }
+        return toSignature(seconds);
+    }
+
+    public int[] secondMinima(int[] items, int from, int to) {
+        long[] mins = newMins(), seconds = newMins();
+        for (int i = from; i < to; i++) {
+            updateTopTwo(mins, seconds, items[i] & 0xFFFFFFFFL);
+        }
+        return toSignature(seconds);
+    }
+
+    public int[] emptySignature() {
+        int[] signature = new int[a.length];
+        Arrays.fill(signature, EMPTY_SLOT);
+        return signature;
+    }
+
+    // Adds one item to an existing signature; valid because minima only decrease as the set grows
+    public void update(int[] signature, int item) {
+        long x = item & 0xFFFFFFFFL;
+        for (int j = 0; j < signature.length; j++) {
+            int slot = slot(hash(a[j], b[j], x) >>> 29);
+            if (Integer.compareUnsigned(slot, signature[j]) < 0)
+                signature[j] = slot;
+        }
+    }
+
+    // 0 when either set is empty: empty signatures agree on every slot but share no element
+    public static double estimateJaccard(int[] sig1, int[] sig2) {
+        if (isEmpty(sig1) || isEmpty(sig2))
+            return 0;
+        int matches = 0;
+        for (int i = 0; i < sig1.length; i++) {
+            if (sig1[i] == sig2[i])
+                matches++;
+        }
+        return (double) matches / sig1.length;
+    }
+
+    // True for the signature of an empty set; such signatures are never banded
+    public static boolean isEmpty(int[] signature) {
+        return signature.length == 0 || signature[0] == EMPTY_SLOT;
+    }
+
+    // An unsigned 32-bit hash value as a slot, keeping EMPTY_SLOT out of the range; monotone, so
+    // min(slot) = slot(min) still holds
+    static int slot(long hash32) {
+        int slot = (int) hash32;
+        return slot == EMPTY_SLOT ? EMPTY_SLOT - 1 : slot;
+    }
+
+    private long[] newMins() {
+        long[] mins = new long[a.length];
+        Arrays.fill(mins, Long.MAX_VALUE);
+        return mins;
+    }
+
+    private void updateMins(long[] mins, long x) {
+        for (int j = 0; j < mins.length; j++) {
+            long h = hash(a[j], b[j], x);
+            if (h < mins[j])
+                mins[j] = h;
+        }
+    }
+
+    private void updateTopTwo(long[] mins, long[] seconds, long x) {
+        for (int j = 0; j < mins.length; j++) {
+            long h = hash(a[j], b[j], x);
+            if (h < mins[j]) {
+                seconds[j] = mins[j];
+                mins[j] = h;
+            } else if (h < seconds[j] && h != mins[j]) {
+                seconds[j] = h;
+            }
+        }
+    }
+
+    // (a * x + b) mod 2^61-1 with the 122-bit product folded using the Mersenne identity 2^61 = 1
+    static long hash(long a, long b, long x) {
+        long lo = a * x;
+        long hi = Math.multiplyHigh(a, x);
+        long r = (lo & MERSENNE_61) + ((lo >>> 61) | (hi << 3)) + b;
+        r = (r & MERSENNE_61) + (r >>> 61);
+        return r >= MERSENNE_61 ? r - MERSENNE_61 : r;
+    }
+
+    // Maps a 64-bit shingle hash into [0, 2^61-1)
+    static long reduce(long shingle) {
+        long x = (shingle & MERSENNE_61) + (shingle >>> 61);
+        return x >= MERSENNE_61 ? x - MERSENNE_61 : x;
+    }
+
+    // Keeps the top 32 of the 61 hash bits; monotone, so min(slot) = slot(min)
+    private static int[] toSignature(long[] mins) {
+        int[] signature = new int[mins.length];
+        for (int j = 0; j < mins.length; j++) {
+            signature[j] = mins[j] == Long.MAX_VALUE ? EMPTY_SLOT : slot(mins[j] >>> 29);
+        }
+        return signature;
+    }
+}
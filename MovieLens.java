@@ -1,120 +1,138 @@
 import java.io.*;
+import java.nio.file.Paths;
 import java.util.*;
 
 public class MovieLens {
-    private static final int NUM_USERS = 943;
-    private static final int NUM_MOVIES = 1682;
     private static final int[] NUM_HASH_FUNCTIONS = { 50, 100, 200 };
-    private static final Random random = new Random();
-    private static final List<int[]> hashFunctions = new ArrayList<>();
-    private static final Map<Integer, Set<Integer>> userMovieRatings = new HashMap<>();
+    private static final int[] B_BIT_WIDTHS = { 1, 4, 8 };
+    private static Random random = new Random();
+    private static InteractionLog log;
 
     public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            random = new Random(Long.parseLong(args[0])); // Fixed seed for reproducible runs
+        }
         loadMovieLensData("u.data");
         computeExactJaccard();
         computeMinHashSignatures();
+        Metrics.dumpIfConfigured();
     }
 
     private static void loadMovieLensData(String fileName) throws IOException {
-        BufferedReader br = new BufferedReader(new FileReader(fileName));
-        String line;
-        while ((line = br.readLine()) != null) {
-            String[] parts = line.split("\t");
-            int user = Integer.parseInt(parts[0]);
-            int movie = Integer.parseInt(parts[1]);
-            userMovieRatings.computeIfAbsent(user, k -> new HashSet<>()).add(movie);
-        }
-        br.close();
+        log = InteractionLog.load(Paths.get(fileName), true); // Ratings weight the ICWS signatures
     }
 
+    // Prefix-filtered similarity join instead of the all-pairs nested loop; printed in pair order
     private static void computeExactJaccard() {
         System.out.println("Exact Jaccard Similarities (>= 0.5):");
-        for (int i = 1; i <= NUM_USERS; i++) {
-            for (int j = i + 1; j <= NUM_USERS; j++) {
-                Set<Integer> set1 = userMovieRatings.getOrDefault(i, new HashSet<>());
-                Set<Integer> set2 = userMovieRatings.getOrDefault(j, new HashSet<>());
-
-                if (!set1.isEmpty() && !set2.isEmpty()) {
-                    double jaccard = computeJaccard(set1, set2);
-                    if (jaccard >= 0.5) {
-                        System.out.println(i + " - " + j + " : " + jaccard);
-                    }
-                }
-            }
+        long[] pairs = SimilarityJoin.pairs(log, 0.5).toArray();
+        Arrays.sort(pairs);
+        for (long pair : pairs) {
+            int i = Banding.first(pair), j = Banding.second(pair);
+            System.out.println(i + " - " + j + " : " + computeJaccard(i, j));
         }
     }
 
-    private static double computeJaccard(Set<Integer> set1, Set<Integer> set2) {
-        Set<Integer> intersection = new HashSet<>(set1);
-        intersection.retainAll(set2);
-        Set<Integer> union = new HashSet<>(set1);
-        union.addAll(set2);
-        return (double) intersection.size() / union.size();
+    private static double computeJaccard(int user1, int user2) {
+        return JaccardVerifier.jaccard(log.items(), log.start(user1), log.end(user1),
+                log.items(), log.start(user2), log.end(user2));
+    }
+
+    private static boolean isSimilar(int user1, int user2, double threshold) {
+        return JaccardVerifier.passes(log.items(), log.start(user1), log.end(user1),
+                log.items(), log.start(user2), log.end(user2), threshold);
     }
 
     private static void computeMinHashSignatures() {
         for (int numHashes : NUM_HASH_FUNCTIONS) {
-            generateHashFunctions(numHashes);
-            int[][] signatures = generateSignatures(numHashes);
+            int[][] signatures = generateSignatures(new MinHashEngine(numHashes, random.nextLong()));
             evaluateMinHash(signatures, numHashes);
+            for (int bits : B_BIT_WIDTHS) {
+                evaluateBBitMinHash(signatures, numHashes, bits);
+            }
+            WeightedMinHash weighted = new WeightedMinHash(numHashes, random.nextLong()).withItemTable(log.itemLimit());
+            evaluateWeightedMinHash(weighted, numHashes);
         }
     }
 
-    private static void generateHashFunctions(int numHashes) {
-        hashFunctions.clear();
-        for (int i = 0; i < numHashes; i++) {
-            int a = random.nextInt(NUM_MOVIES) + 1;
-            int b = random.nextInt(NUM_MOVIES) + 1;
-            hashFunctions.add(new int[] { a, b });
-        }
-    }
-
-    private static int[][] generateSignatures(int numHashes) {
-        int[][] signatures = new int[NUM_USERS + 1][numHashes];
-        for (int user = 1; user <= NUM_USERS; user++) {
-            Arrays.fill(signatures[user], Integer.MAX_VALUE);
-            Set<Integer> movies = userMovieRatings.getOrDefault(user, new HashSet<>());
-            for (int movie : movies) {
-                for (int i = 0; i < numHashes; i++) {
-                    int hash = (hashFunctions.get(i)[0] * movie + hashFunctions.get(i)[1]) % NUM_MOVIES;
-                    signatures[user][i] = Math.min(signatures[user][i], hash);
-                }
-            }
-        }
-        return signatures;
+    private static int[][] generateSignatures(SignatureGenerator generator) {
+        return ParallelPipeline.signatures(generator, log);
     }
 
     private static void evaluateMinHash(int[][] signatures, int numHashes) {
         System.out.println("MinHash Similarities with " + numHashes + " hash functions (>= 0.5):");
         int falsePositives = 0, falseNegatives = 0, totalPairs = 0;
 
-        for (int i = 1; i <= NUM_USERS; i++) {
-            for (int j = i + 1; j <= NUM_USERS; j++) {
-                double approxJaccard = computeMinHashJaccard(signatures[i], signatures[j]);
-                double exactJaccard = computeJaccard(
-                        userMovieRatings.getOrDefault(i, new HashSet<>()),
-                        userMovieRatings.getOrDefault(j, new HashSet<>()));
+        for (int i = 1; i < log.userLimit(); i++) {
+            for (int j = i + 1; j < log.userLimit(); j++) {
+                double approxJaccard = MinHashEngine.estimateJaccard(signatures[i], signatures[j]);
+                boolean exactSimilar = isSimilar(i, j, 0.5);
                 if (approxJaccard >= 0.5) {
                     System.out.println(i + " - " + j + " : " + approxJaccard);
                 }
+                if (approxJaccard >= 0.5 && !exactSimilar)
+                    falsePositives++;
+                if (approxJaccard < 0.5 && exactSimilar)
+                    falseNegatives++;
+                totalPairs++;
+            }
+        }
+
+        System.out.println("False Positives: " + falsePositives);
+        System.out.println("False Negatives: " + falseNegatives);
+    }
+
+    // Ratings as weights: signatures estimate weighted Jaccard, checked against the exact value
+    private static void evaluateWeightedMinHash(WeightedMinHash generator, int numHashes) {
+        int[][] signatures = ParallelPipeline.weightedSignatures(generator, log);
+        int falsePositives = 0, falseNegatives = 0;
+        double totalError = 0;
+        long totalPairs = 0;
+        for (int i = 1; i < log.userLimit(); i++) {
+            for (int j = i + 1; j < log.userLimit(); j++) {
+                double approxJaccard = MinHashEngine.estimateJaccard(signatures[i], signatures[j]);
+                double exactJaccard = computeWeightedJaccard(i, j);
                 if (approxJaccard >= 0.5 && exactJaccard < 0.5)
                     falsePositives++;
                 if (approxJaccard < 0.5 && exactJaccard >= 0.5)
                     falseNegatives++;
+                totalError += Math.abs(approxJaccard - exactJaccard);
                 totalPairs++;
             }
         }
 
+        System.out.println("Weighted MinHash with " + numHashes + " hash functions (ratings as weights):");
+        System.out.printf("Mean Absolute Error: %.4f\n", totalError / totalPairs);
         System.out.println("False Positives: " + falsePositives);
         System.out.println("False Negatives: " + falseNegatives);
     }
 
-    private static double computeMinHashJaccard(int[] sig1, int[] sig2) {
-        int matches = 0;
-        for (int i = 0; i < sig1.length; i++) {
-            if (sig1[i] == sig2[i])
-                matches++;
+    private static double computeWeightedJaccard(int user1, int user2) {
+        return JaccardVerifier.weightedJaccard(log.items(), log.ratings(), log.start(user1), log.end(user1),
+                log.items(), log.ratings(), log.start(user2), log.end(user2));
+    }
+
+    private static void evaluateBBitMinHash(int[][] signatures, int numHashes, int bits) {
+        BBitSignatureStore store = new BBitSignatureStore(log.userLimit(), numHashes, bits);
+        for (int user = 1; user < log.userLimit(); user++) {
+            store.set(user, signatures[user]);
         }
-        return (double) matches / sig1.length;
+
+        int falsePositives = 0, falseNegatives = 0;
+        for (int i = 1; i < log.userLimit(); i++) {
+            for (int j = i + 1; j < log.userLimit(); j++) {
+                double approxJaccard = store.estimateJaccard(i, j);
+                boolean exactSimilar = isSimilar(i, j, 0.5);
+                if (approxJaccard >= 0.5 && !exactSimilar)
+                    falsePositives++;
+                if (approxJaccard < 0.5 && exactSimilar)
+                    falseNegatives++;
+            }
+        }
+
+        System.out.println(bits + "-bit MinHash with " + numHashes + " hash functions (" + store.sizeInBytes()
+                + " bytes vs " + (long) (log.userLimit()) * numHashes * 4 + " full):");
+        System.out.println("False Positives: " + falsePositives);
+        System.out.println("False Negatives: " + falseNegatives);
     }
 }
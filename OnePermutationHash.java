@@ -0,0 +1,104 @@
+import java.util.Arrays;
+
+public class OnePermutationHash implements SignatureGenerator {
+    private static final long EMPTY_BIN = Long.MAX_VALUE;
+
+    private final int numBins;
+    private final long seed;
+
+    public OnePermutationHash(int numBins, long seed) {
+        this.numBins = numBins;
+        this.seed = seed;
+    }
+
+    @Override
+    public int numHashes() {
+        return numBins;
+    }
+
+    // Single hash per shingle: high 32 bits pick the bin, low 32 bits compete for its minimum
+    @Override
+    public int[] signature(long[] shingles) {
+        long[] bins = newBins();
+        for (long shingle : shingles) {
+            offer(bins, Hashing.mix64(shingle + seed));
+        }
+        return densify(bins);
+    }
+
+    @Override
+    public int[] signature(int[] items, int from, int to) {
+        long[] bins = newBins();
+        for (int i = from; i < to; i++) {
+            int item = items[i];
+            offer(bins, Hashing.mix64((item & 0xFFFFFFFFL) + seed));
+        }
+        return densify(bins);
+    }
+
+    @Override
+    public Accumulator accumulator() {
+        return new Accumulator() {
+            private final long[] bins = newBins();
+
+            @Override
+            public void add(long shingle) {
+                offer(bins, Hashing.mix64(shingle + seed));
+            }
+
+            @Override
+            public int[] finish() {
+                int[] signature = densify(bins);
+                Arrays.fill(bins, EMPTY_BIN);
+                return signature;
+            }
+        };
+    }
+
+    private long[] newBins() {
+        long[] bins = new long[numBins];
+        Arrays.fill(bins, EMPTY_BIN);
+        return bins;
+    }
+
+    private void offer(long[] bins, long h) {
+        int bin = toBin(h >>> 32);
+        long value = h & 0xFFFFFFFFL;
+        if (value < bins[bin])
+            bins[bin] = value;
+    }
+
+    // Optimal densification (Shrivastava, 2017): each empty bin borrows from the first
+    // non-empty bin on its own independent probe sequence
+    private int[] densify(long[] bins) {
+        int[] signature = new int[numBins];
+        boolean anyFilled = false;
+        for (int i = 0; i < numBins; i++) {
+            if (bins[i] != EMPTY_BIN) {
+                signature[i] = MinHashEngine.slot(bins[i]);
+                anyFilled = true;
+            }
+        }
+        if (!anyFilled) {
+            Arrays.fill(signature, MinHashEngine.EMPTY_SLOT);
+            return signature;
+        }
+        for (int i = 0; i < numBins; i++) {
+            if (bins[i] != EMPTY_BIN)
+                continue;
+            for (long attempt = 1; ; attempt++) {
+                int donor = toBin(Hashing.mix64(seed ^ (i * 0x9E3779B97F4A7C15L + attempt)) >>> 32);
+                if (bins[donor] != EMPTY_BIN) {
+                    signature[i] = MinHashEngine.slot(bins[donor]);
+                    break;
+                }
+            }
+        }
+        return signature;
+    }
+
+    // Maps a 32-bit hash uniformly onto [0, numBins) without division
+    private int toBin(long hash32) {
+        return (int) ((hash32 * numBins) >>> 32);
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.List;
+import java.util.stream.IntStream;
+
+// Parallel variants of the signature and banding stages. Generators allocate their scratch per call,
+// so one instance is shared by all workers; each output cell has exactly one writer, which keeps the
+// result identical to the sequential path for a fixed seed.
+public final class ParallelPipeline {
+    private static final Metrics.Timer SIGNATURES = Metrics.timer("signatures");
+    private static final Metrics.Timer BANDING = Metrics.timer("banding");
+    private static final Metrics.Timer CANDIDATES = Metrics.timer("candidates");
+
+    private ParallelPipeline() {
+    }
+
+    public static int[][] signatures(SignatureGenerator generator, List<long[]> sets) {
+        long start = Metrics.now();
+        int[][] signatures = new int[sets.size()][];
+        IntStream.range(0, sets.size()).parallel()
+                .forEach(doc -> signatures[doc] = generator.signature(sets.get(doc)));
+        SIGNATURES.record(start, signatures.length);
+        return signatures;
+    }
+
+    public static int[][] signatures(SignatureGenerator generator, int[][] itemSets) {
+        long start = Metrics.now();
+        int[][] signatures = new int[itemSets.length][];
+        IntStream.range(0, itemSets.length).parallel()
+                .forEach(doc -> signatures[doc] = generator.signature(itemSets[doc]));
+        SIGNATURES.record(start, signatures.length);
+        return signatures;
+    }
+
+    // One signature per user id of the log, read directly from its CSR slices
+    public static int[][] signatures(SignatureGenerator generator, InteractionLog log) {
+        long start = Metrics.now();
+        int[][] signatures = new int[log.userLimit()][];
+        IntStream.range(0, log.userLimit()).parallel()
+                .forEach(user -> signatures[user] = generator.signature(log.items(), log.start(user), log.end(user)));
+        SIGNATURES.record(start, signatures.length);
+        return signatures;
+    }
+
+    // Rating-weighted signatures, one per user id of the log
+    public static int[][] weightedSignatures(WeightedMinHash generator, InteractionLog log) {
+        long start = Metrics.now();
+        int[][] signatures = new int[log.userLimit()][];
+        IntStream.range(0, log.userLimit()).parallel().forEach(user -> signatures[user] =
+                generator.signature(log.items(), log.ratings(), log.start(user), log.end(user)));
+        SIGNATURES.record(start, signatures.length);
+        return signatures;
+    }
+
+    // Band keys are computed doc-parallel, then each band's table is filled by one worker in doc order
+    public static BandTable[] buildTables(int[][] signatures, int from, int to, int bands, int rows) {
+        long start = Metrics.now();
+        long[][] keys = new long[bands][to - from];
+        IntStream.range(from, to).parallel().forEach(doc -> {
+            for (int band = 0; band < bands; band++) {
+                keys[band][doc - from] = Banding.bandKey(signatures[doc], band, rows);
+            }
+        });
+
+        BandTable[] tables = new BandTable[bands];
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            BandTable table = new BandTable(to - from);
+            long[] bandKeys = keys[band];
+            for (int doc = from; doc < to; doc++) {
+                if (!MinHashEngine.isEmpty(signatures[doc])) // Empty sets would all share one bucket
+                    table.add(bandKeys[doc - from], doc);
+            }
+            tables[band] = table;
+        });
+        BANDING.record(start, to - from);
+        return tables;
+    }
+
+    // Per-band candidate sets built in parallel, then merged pairwise in parallel rounds
+    public static LongHashSet candidatePairs(BandTable[] tables) {
+        return candidatePairs(tables, null, 0, HotBucketPolicy.UNBOUNDED);
+    }
+
+    // Policy-bounded variant of candidatePairs
+    public static LongHashSet candidatePairs(BandTable[] tables, int[][] signatures, int rows,
+            HotBucketPolicy policy) {
+        long start = Metrics.now();
+        Banding.checkSpareRows(tables.length, signatures, rows, policy);
+        LongHashSet[] perBand = new LongHashSet[tables.length];
+        IntStream.range(0, tables.length).parallel().forEach(band -> {
+            perBand[band] = new LongHashSet();
+            Banding.addCandidatePairs(tables, band, signatures, rows, policy, perBand[band]);
+        });
+        LongHashSet candidatePairs = merge(perBand);
+        CANDIDATES.record(start, candidatePairs.size());
+        return candidatePairs;
+    }
+
+    // Tree reduction: in the round with stride s, set i (a multiple of 2s) absorbs set i + s, all pairs of a
+    // round merging concurrently, so no single thread re-inserts every pair. The smaller set is added to the
+    // larger; the fixed tree keeps the result deterministic.
+    static LongHashSet merge(LongHashSet[] sets) {
+        if (sets.length == 0)
+            return new LongHashSet();
+        for (int stride = 1; stride < sets.length; stride *= 2) {
+            int s = stride;
+            IntStream.range(0, (sets.length + 2 * s - 1) / (2 * s)).parallel().forEach(i -> {
+                int left = i * 2 * s, right = left + s;
+                if (right >= sets.length)
+                    return;
+                LongHashSet into = sets[left].size() >= sets[right].size() ? sets[left] : sets[right];
+                LongHashSet from = into == sets[left] ? sets[right] : sets[left];
+                from.forEach(into::add);
+                sets[left] = into;
+                sets[right] = null;
+            });
+        }
+        return sets[0];
+    }
+}
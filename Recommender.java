@@ -0,0 +1,174 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Top-k similar users and item recommendations over an LSHIndex of user signatures. Bucket mates are
+// ranked by estimated Jaccard in a bounded heap, the best RERANK_FACTOR * k are re-scored with exact
+// Jaccard from the log, and the neighbours' items are summed by similarity into recommendations.
+// Queries only read the index, so batches run in parallel; the index must not change meanwhile.
+public class Recommender {
+    private static final int RERANK_FACTOR = 3; // Estimated candidates kept per requested neighbour
+    private static final Metrics.Timer NEIGHBOURS = Metrics.timer("recommend.neighbours");
+    private static final Metrics.Timer RECOMMENDATIONS = Metrics.timer("recommend.items");
+
+    private final InteractionLog log;
+    private final LSHIndex index;
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    public static class Recommendation {
+        public final int item;
+        public final double score; // Sum of the similarities of the neighbours holding the item
+
+        Recommendation(int item, double score) {
+            this.item = item;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return item + " (" + String.format("%.4f", score) + ")";
+        }
+    }
+
+    // Per-thread arrays sized by the id spaces, reset lazily through stamps
+    private static final class Scratch {
+        int[] seen = new int[0];
+        int[] owned = new int[0];
+        double[] itemScores = new double[0];
+        int[] touched = new int[0];
+        int stamp;
+        int[] ids = new int[0];
+        double[] scores = new double[0];
+    }
+
+    public Recommender(InteractionLog log, LSHIndex index) {
+        this.log = log;
+        this.index = index;
+    }
+
+    // Up to k users most similar to the user by exact Jaccard, best first; fewer when LSH finds fewer
+    public List<LSHIndex.Candidate> nearest(int user, int k) {
+        Scratch s = scratch.get();
+        int count = neighbours(user, k, s);
+        List<LSHIndex.Candidate> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            results.add(new LSHIndex.Candidate(s.ids[i], s.scores[i]));
+        }
+        return results;
+    }
+
+    // Up to n items the user has not interacted with, scored over the user's k nearest neighbours
+    public List<Recommendation> recommend(int user, int k, int n) {
+        long start = Metrics.now();
+        Scratch s = scratch.get();
+        int count = neighbours(user, k, s);
+        int stamp = nextStamp(s);
+        if (s.itemScores.length < log.itemLimit()) {
+            s.owned = new int[log.itemLimit()];
+            s.itemScores = new double[log.itemLimit()];
+            s.touched = new int[log.itemLimit()];
+        }
+        int[] items = log.items();
+        for (int i = log.start(user); i < log.end(user); i++) {
+            s.owned[items[i]] = stamp;
+        }
+        int touched = 0;
+        for (int i = 0; i < count; i++) {
+            int neighbour = s.ids[i];
+            if (s.scores[i] <= 0)
+                continue;
+            for (int j = log.start(neighbour); j < log.end(neighbour); j++) {
+                int item = items[j];
+                if (s.owned[item] == stamp)
+                    continue;
+                if (s.itemScores[item] == 0)
+                    s.touched[touched++] = item;
+                s.itemScores[item] += s.scores[i];
+            }
+        }
+
+        TopKHeap best = new TopKHeap(Math.max(1, n));
+        for (int i = 0; i < touched; i++) {
+            int item = s.touched[i];
+            best.offer(item, s.itemScores[item]);
+            s.itemScores[item] = 0;
+        }
+        int[] bestItems = new int[best.size()];
+        double[] bestScores = new double[best.size()];
+        int found = n > 0 ? best.drain(bestItems, bestScores) : 0;
+        List<Recommendation> results = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            results.add(new Recommendation(bestItems[i], bestScores[i]));
+        }
+        RECOMMENDATIONS.record(start, 1);
+        return results;
+    }
+
+    // Batched forms: one result list per requested user, in request order, computed in parallel
+    public List<List<LSHIndex.Candidate>> nearest(int[] users, int k) {
+        return IntStream.range(0, users.length).parallel()
+                .mapToObj(i -> nearest(users[i], k))
+                .collect(Collectors.toList());
+    }
+
+    public List<List<Recommendation>> recommend(int[] users, int k, int n) {
+        return IntStream.range(0, users.length).parallel()
+                .mapToObj(i -> recommend(users[i], k, n))
+                .collect(Collectors.toList());
+    }
+
+    // Fills s.ids / s.scores with up to k neighbours, best exact Jaccard first; returns how many
+    private int neighbours(int user, int k, Scratch s) {
+        long start = Metrics.now();
+        int[] signature = index.signature(user);
+        if (signature == null || k < 1)
+            return 0;
+        int stamp = nextStamp(s);
+        if (s.seen.length < index.idLimit()) {
+            s.seen = new int[index.idLimit()];
+        }
+
+        TopKHeap estimated = new TopKHeap(k * RERANK_FACTOR);
+        for (int band = 0; band < index.bands(); band++) {
+            BandTable table = index.table(band);
+            int slot = table.find(Banding.bandKey(signature, band, index.rows()));
+            if (slot < 0)
+                continue;
+            int[] docs = table.postings(slot);
+            for (int i = 0; i < table.postingCount(slot); i++) {
+                int doc = docs[i];
+                if (doc == user || s.seen[doc] == stamp)
+                    continue;
+                s.seen[doc] = stamp;
+                estimated.offer(doc, MinHashEngine.estimateJaccard(signature, index.signature(doc)));
+            }
+        }
+
+        if (s.ids.length < k * RERANK_FACTOR) {
+            s.ids = new int[k * RERANK_FACTOR];
+            s.scores = new double[k * RERANK_FACTOR];
+        }
+        int candidates = estimated.drain(s.ids, s.scores);
+        TopKHeap exact = new TopKHeap(k);
+        int[] items = log.items();
+        for (int i = 0; i < candidates; i++) {
+            int other = s.ids[i];
+            exact.offer(other, JaccardVerifier.jaccard(items, log.start(user), log.end(user),
+                    items, log.start(other), log.end(other)));
+        }
+        int count = exact.drain(s.ids, s.scores);
+        NEIGHBOURS.record(start, 1);
+        return count;
+    }
+
+    private static int nextStamp(Scratch s) {
+        if (++s.stamp == 0) { // Wrapped: clear so stale stamps cannot match
+            Arrays.fill(s.seen, 0);
+            Arrays.fill(s.owned, 0);
+            s.stamp = 1;
+        }
+        return s.stamp;
+    }
+}
@@ -0,0 +1,187 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+// Client side of a ShardServer connection. One request is in flight at a time per connection; the
+// coordinator overlaps shards by calling them from separate threads. Connecting and every response are
+// bounded by timeouts, so a hung server fails the call instead of the coordinator. A transport failure
+// leaves the stream at an unknown point of a request, so it closes the connection and every later call
+// fails fast; an error the server reports leaves the stream in sync and the shard usable.
+public class RemoteShard implements Shard {
+    static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    static final int READ_TIMEOUT_MILLIS = 60_000;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Process process; // The server's JVM when this client spawned it, else null
+    private IOException broken; // The transport failure that closed the connection; guarded by this
+
+    private interface Exchange<T> {
+        T run() throws IOException;
+    }
+
+    // A failure the server reported in a well-formed response
+    private static final class ServerError extends IOException {
+        ServerError(String message) {
+            super(message);
+        }
+    }
+
+    public RemoteShard(InetSocketAddress address) throws IOException {
+        this(address, null);
+    }
+
+    RemoteShard(InetSocketAddress address, Process process) throws IOException {
+        this.socket = new Socket();
+        this.process = process;
+        try {
+            socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    @Override
+    public synchronized void open(int shard, int shards, int bands) throws IOException {
+        exchange(() -> {
+            out.writeByte(ShardServer.OPEN);
+            out.writeInt(shard);
+            out.writeInt(shards);
+            out.writeInt(bands);
+            call();
+            return null;
+        });
+    }
+
+    @Override
+    public synchronized void insert(int[] docs, long[][] keys, int[][] signatures) throws IOException {
+        exchange(() -> {
+            out.writeByte(ShardServer.INSERT);
+            out.writeInt(docs.length);
+            for (int i = 0; i < docs.length; i++) {
+                out.writeInt(docs[i]);
+                ShardServer.writeLongs(out, keys[i]);
+                out.writeBoolean(signatures[i] != null);
+                if (signatures[i] != null)
+                    ShardServer.writeInts(out, signatures[i]);
+            }
+            call();
+            return null;
+        });
+    }
+
+    @Override
+    public synchronized void remove(int[] docs, long[][] keys) throws IOException {
+        exchange(() -> {
+            out.writeByte(ShardServer.REMOVE);
+            out.writeInt(docs.length);
+            for (int i = 0; i < docs.length; i++) {
+                out.writeInt(docs[i]);
+                ShardServer.writeLongs(out, keys[i]);
+            }
+            call();
+            return null;
+        });
+    }
+
+    @Override
+    public synchronized int[] candidates(long[] keys) throws IOException {
+        return exchange(() -> {
+            out.writeByte(ShardServer.CANDIDATES);
+            ShardServer.writeLongs(out, keys);
+            call();
+            return ShardServer.readInts(in);
+        });
+    }
+
+    @Override
+    public synchronized int verify(int[] signature, int[] docs, double threshold, int[] outDocs,
+            double[] outSimilarities) throws IOException {
+        return exchange(() -> {
+            out.writeByte(ShardServer.VERIFY);
+            ShardServer.writeInts(out, signature);
+            ShardServer.writeInts(out, docs);
+            out.writeDouble(threshold);
+            call();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                outDocs[i] = in.readInt();
+                outSimilarities[i] = in.readDouble();
+            }
+            return count;
+        });
+    }
+
+    @Override
+    public synchronized int[] signature(int doc) throws IOException {
+        return exchange(() -> {
+            out.writeByte(ShardServer.SIGNATURE);
+            out.writeInt(doc);
+            call();
+            return in.readBoolean() ? ShardServer.readInts(in) : null;
+        });
+    }
+
+    @Override
+    public synchronized int[][] signatures(int[] docs) throws IOException {
+        return exchange(() -> {
+            out.writeByte(ShardServer.SIGNATURES);
+            ShardServer.writeInts(out, docs);
+            call();
+            int[][] found = new int[docs.length][];
+            for (int i = 0; i < docs.length; i++) {
+                found[i] = in.readBoolean() ? ShardServer.readInts(in) : null;
+            }
+            return found;
+        });
+    }
+
+    // Closes the connection and stops the server's JVM if this client spawned it
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            socket.close();
+        } finally {
+            if (process != null)
+                process.destroy();
+        }
+    }
+
+    // Runs one request/response exchange; after a transport failure the connection is closed for good
+    private <T> T exchange(Exchange<T> exchange) throws IOException {
+        if (broken != null)
+            throw new IOException("Shard at " + socket.getRemoteSocketAddress() + " is unusable after: " + broken,
+                    broken);
+        try {
+            return exchange.run();
+        } catch (ServerError e) {
+            throw e;
+        } catch (IOException e) {
+            broken = e;
+            try {
+                socket.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    // Sends the buffered request and checks the response status
+    private void call() throws IOException {
+        out.flush();
+        if (in.readByte() != ShardServer.OK) {
+            throw new ServerError("Shard at " + socket.getRemoteSocketAddress() + " failed: " + in.readUTF());
+        }
+    }
+}
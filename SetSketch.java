@@ -0,0 +1,90 @@
+// A document's MinHash signature bundled with a HyperLogLog of the same set: Jaccard from the signature,
+// set sizes from the HLL, and from both the union, intersection and containment sizes, so none of these
+// needs the set itself. The set's own cardinality is estimated once, which makes the size filter in
+// prune an O(1) test per candidate pair.
+public class SetSketch {
+    static final double SIZE_FILTER_SIGMAS = 3; // Standard errors of slack before a size gap is trusted
+    private static final Metrics.Counter PRUNE_CANDIDATES = Metrics.counter("prune.candidates");
+    private static final Metrics.Counter PRUNE_KEPT = Metrics.counter("prune.kept");
+
+    static {
+        Metrics.ratio("prune.keep_ratio", "prune.kept", "prune.candidates");
+    }
+
+    private final int[] signature;
+    private final HyperLogLog cardinality;
+    private final double size;
+
+    public SetSketch(int[] signature, HyperLogLog cardinality) {
+        this.signature = signature;
+        this.cardinality = cardinality;
+        this.size = cardinality.cardinality();
+    }
+
+    public static SetSketch of(SignatureGenerator generator, int precision, long[] shingles) {
+        return new SetSketch(generator.signature(shingles), HyperLogLog.of(precision, shingles));
+    }
+
+    public static SetSketch of(SignatureGenerator generator, int precision, int[] items, int from, int to) {
+        return new SetSketch(generator.signature(items, from, to), HyperLogLog.of(precision, items, from, to));
+    }
+
+    public int[] signature() {
+        return signature;
+    }
+
+    public HyperLogLog cardinalitySketch() {
+        return cardinality;
+    }
+
+    public double size() {
+        return size;
+    }
+
+    public double jaccard(SetSketch other) {
+        return MinHashEngine.estimateJaccard(signature, other.signature);
+    }
+
+    public double unionSize(SetSketch other) {
+        return cardinality.unionCardinality(other.cardinality);
+    }
+
+    // |A n B| = J * |A u B|
+    public double intersectionSize(SetSketch other) {
+        return jaccard(other) * unionSize(other);
+    }
+
+    // Fraction of this set contained in the other, |A n B| / |A|, clamped to [0, 1]
+    public double containmentIn(SetSketch other) {
+        if (size == 0)
+            return 0;
+        return Math.min(1, intersectionSize(other) / size);
+    }
+
+    // False only when the estimated sizes alone rule out Jaccard >= threshold, since J <= |small| / |large|.
+    // Each size may be off by SIZE_FILTER_SIGMAS of its own sketch's standard errors, in opposite directions,
+    // before a pair is dropped, so the filter rarely costs recall. Sets whose exact sizes are at hand (e.g.
+    // InteractionLog.size) are better served by JaccardVerifier's exact size bound.
+    public boolean mayReach(SetSketch other, double threshold) {
+        SetSketch small = size <= other.size ? this : other, large = small == this ? other : this;
+        if (large.size == 0)
+            return true;
+        return small.size * (1 + small.sizeSlack()) >= threshold * large.size * (1 - large.sizeSlack());
+    }
+
+    private double sizeSlack() {
+        return SIZE_FILTER_SIGMAS * cardinality.relativeError();
+    }
+
+    // The candidate pairs (Banding.pair encoding) whose sketches pass mayReach; run before exact verification
+    public static LongHashSet prune(LongHashSet candidates, SetSketch[] sketches, double threshold) {
+        LongHashSet kept = new LongHashSet(candidates.size());
+        candidates.forEach(pair -> {
+            if (sketches[Banding.first(pair)].mayReach(sketches[Banding.second(pair)], threshold))
+                kept.add(pair);
+        });
+        PRUNE_CANDIDATES.add(candidates.size());
+        PRUNE_KEPT.add(kept.size());
+        return kept;
+    }
+}
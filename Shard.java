@@ -0,0 +1,38 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+// One partition of a ShardedLSHIndex: the band tables of a contiguous range of bands, plus the signatures
+// of the documents it owns. Band keys arrive precomputed by the coordinator, one per local band, so a shard
+// never needs to know which global bands it holds. Implemented in-process by ShardWorker and over a socket
+// by RemoteShard; calls on one shard may come from several coordinator threads.
+public interface Shard extends Closeable {
+    // Resets the shard as partition `shard` of `shards`: `bands` empty band tables and no signatures. The
+    // shard owns the docs with doc % shards == shard.
+    void open(int shard, int shards, int bands) throws IOException;
+
+    // Adds docs[i] under keys[i] (one key per local band, none for an empty set); signatures[i] is non-null for the docs this shard
+    // owns. Replaces nothing: the coordinator removes a doc before re-inserting it.
+    void insert(int[] docs, long[][] keys, int[][] signatures) throws IOException;
+
+    // Removes docs[i] from the buckets under keys[i] and drops its signature if owned; postings already
+    // absent are skipped, so a removal may be repeated
+    void remove(int[] docs, long[][] keys) throws IOException;
+
+    // Distinct docs sharing at least one local bucket with the keys
+    int[] candidates(long[] keys) throws IOException;
+
+    // The owned docs among `docs` whose estimated Jaccard with the signature reaches the threshold, written
+    // to outDocs / outSimilarities; returns how many
+    int verify(int[] signature, int[] docs, double threshold, int[] outDocs, double[] outSimilarities)
+            throws IOException;
+
+    // Signature of an owned doc, or null
+    int[] signature(int doc) throws IOException;
+
+    // signature(docs[i]) for every i, in one call
+    int[][] signatures(int[] docs) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
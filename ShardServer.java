@@ -0,0 +1,195 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+// Serves one ShardWorker over loopback TCP, so a ShardedLSHIndex can spread its shards over several JVMs.
+// Run as `java ShardServer [port]` (0 or omitted: any free port); the first line printed is
+// "ShardServer listening on <port>". Each connection gets its own thread; all share the worker.
+//
+// Wire format (big-endian, DataOutputStream): a request is an op byte and its arguments, a response is a
+// status byte (OK, or ERROR followed by a UTF message) and the results. Arrays are length-prefixed.
+public class ShardServer {
+    static final byte OPEN = 1, INSERT = 2, REMOVE = 3, CANDIDATES = 4, VERIFY = 5, SIGNATURE = 6,
+            SIGNATURES = 7;
+    static final byte OK = 0, ERROR = 1;
+    static final String BANNER = "ShardServer listening on ";
+
+    private final ShardWorker worker = new ShardWorker();
+    private final ServerSocket server;
+
+    public ShardServer(int port) throws IOException {
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    public static void main(String[] args) throws IOException {
+        ShardServer shardServer = new ShardServer(args.length > 0 ? Integer.parseInt(args[0]) : 0);
+        System.out.println(BANNER + shardServer.port());
+        System.out.flush();
+        shardServer.serve();
+    }
+
+    // Accepts connections until the server socket is closed
+    public void serve() throws IOException {
+        while (!server.isClosed()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (server.isClosed())
+                    return;
+                throw e;
+            }
+            Thread handler = new Thread(() -> handle(socket), "shard-connection-" + socket.getPort());
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    return; // Client closed the connection
+                }
+                try {
+                    respond(op, in, out);
+                } catch (RuntimeException e) {
+                    out.writeByte(ERROR);
+                    out.writeUTF(String.valueOf(e));
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Shard connection failed: " + e);
+        }
+    }
+
+    // Reads the whole request before touching the worker, so a failed op leaves the stream in sync
+    private void respond(byte op, DataInputStream in, DataOutputStream out) throws IOException {
+        switch (op) {
+            case OPEN: {
+                int shard = in.readInt(), shards = in.readInt(), bands = in.readInt();
+                worker.open(shard, shards, bands);
+                out.writeByte(OK);
+                break;
+            }
+            case INSERT: {
+                int count = in.readInt();
+                int[] docs = new int[count];
+                long[][] keys = new long[count][];
+                int[][] signatures = new int[count][];
+                for (int i = 0; i < count; i++) {
+                    docs[i] = in.readInt();
+                    keys[i] = readLongs(in);
+                    signatures[i] = in.readBoolean() ? readInts(in) : null;
+                }
+                worker.insert(docs, keys, signatures);
+                out.writeByte(OK);
+                break;
+            }
+            case REMOVE: {
+                int count = in.readInt();
+                int[] docs = new int[count];
+                long[][] keys = new long[count][];
+                for (int i = 0; i < count; i++) {
+                    docs[i] = in.readInt();
+                    keys[i] = readLongs(in);
+                }
+                worker.remove(docs, keys);
+                out.writeByte(OK);
+                break;
+            }
+            case CANDIDATES: {
+                int[] docs = worker.candidates(readLongs(in));
+                out.writeByte(OK);
+                writeInts(out, docs);
+                break;
+            }
+            case VERIFY: {
+                int[] signature = readInts(in);
+                int[] docs = readInts(in);
+                double threshold = in.readDouble();
+                int[] found = new int[docs.length];
+                double[] similarities = new double[docs.length];
+                int count = worker.verify(signature, docs, threshold, found, similarities);
+                out.writeByte(OK);
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    out.writeInt(found[i]);
+                    out.writeDouble(similarities[i]);
+                }
+                break;
+            }
+            case SIGNATURE: {
+                int[] signature = worker.signature(in.readInt());
+                out.writeByte(OK);
+                out.writeBoolean(signature != null);
+                if (signature != null)
+                    writeInts(out, signature);
+                break;
+            }
+            case SIGNATURES: {
+                int[][] signatures = worker.signatures(readInts(in));
+                out.writeByte(OK);
+                for (int[] signature : signatures) {
+                    out.writeBoolean(signature != null);
+                    if (signature != null)
+                        writeInts(out, signature);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown shard op " + op); // Stream is out of sync: drop the connection
+        }
+    }
+
+    static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    static long[] readLongs(DataInputStream in) throws IOException {
+        long[] values = new long[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readLong();
+        }
+        return values;
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.Arrays;
+
+// In-process Shard. Owned signatures are stored by doc / shards, so each worker's signature array stays
+// dense although it owns only every shards-th doc id.
+public class ShardWorker implements Shard {
+    private int shard;
+    private int stride = 1;
+    private BandTable[] tables = new BandTable[0];
+    private int[][] signatures = new int[16][];
+
+    @Override
+    public synchronized void open(int shard, int shards, int bands) {
+        if (shard < 0 || shard >= shards) {
+            throw new IllegalArgumentException("Shard " + shard + " out of range for " + shards + " shards");
+        }
+        this.shard = shard;
+        this.stride = shards;
+        tables = new BandTable[bands];
+        for (int band = 0; band < bands; band++) {
+            tables[band] = new BandTable();
+        }
+        signatures = new int[16][];
+    }
+
+    public synchronized int bands() {
+        return tables.length;
+    }
+
+    @Override
+    public synchronized void insert(int[] docs, long[][] keys, int[][] signatures) {
+        for (int i = 0; i < docs.length; i++) {
+            for (int band = 0; band < keys[i].length; band++) {
+                tables[band].add(keys[i][band], docs[i]);
+            }
+            if (signatures[i] != null && docs[i] % stride == shard) {
+                int slot = docs[i] / stride;
+                if (slot >= this.signatures.length)
+                    this.signatures = Arrays.copyOf(this.signatures, Math.max(slot + 1, this.signatures.length * 2));
+                this.signatures[slot] = signatures[i].clone(); // remove() trusts the coordinator's keys, not the caller's array
+            }
+        }
+    }
+
+    @Override
+    public synchronized void remove(int[] docs, long[][] keys) {
+        for (int i = 0; i < docs.length; i++) {
+            for (int band = 0; band < keys[i].length; band++) {
+                tables[band].remove(keys[i][band], docs[i]);
+            }
+            if (owns(docs[i]))
+                signatures[docs[i] / stride] = null;
+        }
+    }
+
+    @Override
+    public synchronized int[] candidates(long[] keys) {
+        LongHashSet seen = new LongHashSet();
+        int[] found = new int[16];
+        int count = 0;
+        for (int band = 0; band < tables.length; band++) {
+            BandTable table = tables[band];
+            int slot = table.find(keys[band]);
+            if (slot < 0)
+                continue;
+            int[] docs = table.postings(slot);
+            for (int i = 0; i < table.postingCount(slot); i++) {
+                if (!seen.add(docs[i]))
+                    continue;
+                if (count == found.length)
+                    found = Arrays.copyOf(found, count * 2);
+                found[count++] = docs[i];
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    @Override
+    public synchronized int verify(int[] signature, int[] docs, double threshold, int[] outDocs,
+            double[] outSimilarities) {
+        int count = 0;
+        for (int doc : docs) {
+            int[] candidate = stored(doc);
+            if (candidate == null)
+                continue;
+            double similarity = MinHashEngine.estimateJaccard(signature, candidate);
+            if (similarity >= threshold) {
+                outDocs[count] = doc;
+                outSimilarities[count++] = similarity;
+            }
+        }
+        return count;
+    }
+
+    // Copies, like a RemoteShard's deserialized arrays: a caller writing into the result must not corrupt
+    // the stored signature that remove() and verify() rely on
+    @Override
+    public synchronized int[] signature(int doc) {
+        int[] signature = stored(doc);
+        return signature == null ? null : signature.clone();
+    }
+
+    @Override
+    public synchronized int[][] signatures(int[] docs) {
+        int[][] found = new int[docs.length][];
+        for (int i = 0; i < docs.length; i++) {
+            found[i] = signature(docs[i]);
+        }
+        return found;
+    }
+
+    private int[] stored(int doc) {
+        return owns(doc) ? signatures[doc / stride] : null;
+    }
+
+    private boolean owns(int doc) {
+        return doc >= 0 && doc % stride == shard && doc / stride < signatures.length;
+    }
+}
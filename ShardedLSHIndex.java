@@ -0,0 +1,457 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// LSHIndex with its band tables partitioned over N shards (ShardWorker in-process, or ShardServer JVMs
+// reached through RemoteShard), so no single heap holds every table. Shard i holds bands
+// [i*bands/N, (i+1)*bands/N) and the signatures of docs with doc % N == i. The coordinator keeps only a
+// bit per doc: inserts scatter each shard its slice of the band keys, and queries scatter keys, gather and
+// deduplicate candidates, then scatter each candidate to its owner for verification. Shards are called
+// concurrently, one pool thread per shard. Writers are serialized; queries may run alongside each other.
+public class ShardedLSHIndex implements Closeable {
+    private final int bands;
+    private final int rows;
+    private final Shard[] shards;
+    private final int[] firstBand; // Shard i holds bands [firstBand[i], firstBand[i + 1])
+    private final ExecutorService pool;
+    private final BitSet present = new BitSet(); // Guarded by this
+    private int size; // Guarded by this
+
+    private interface ShardCall<T> {
+        T call(int shard) throws IOException;
+    }
+
+    public ShardedLSHIndex(int bands, int rows, List<? extends Shard> shards) throws IOException {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("Need at least one shard");
+        }
+        this.bands = bands;
+        this.rows = rows;
+        this.shards = shards.toArray(new Shard[0]);
+        firstBand = new int[this.shards.length + 1];
+        for (int i = 0; i <= this.shards.length; i++) {
+            firstBand[i] = (int) ((long) bands * i / this.shards.length);
+        }
+        pool = Executors.newFixedThreadPool(this.shards.length, task -> {
+            Thread thread = new Thread(task, "shard-scatter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scatter(shard -> {
+            this.shards[shard].open(shard, this.shards.length, firstBand[shard + 1] - firstBand[shard]);
+            return null;
+        });
+    }
+
+    public static ShardedLSHIndex inProcess(int bands, int rows, int numShards) throws IOException {
+        List<Shard> shards = new ArrayList<>();
+        for (int i = 0; i < numShards; i++) {
+            shards.add(new ShardWorker());
+        }
+        return new ShardedLSHIndex(bands, rows, shards);
+    }
+
+    // Shards served by already running ShardServers; their previous contents are discarded
+    public static ShardedLSHIndex connect(int bands, int rows, List<InetSocketAddress> addresses) throws IOException {
+        List<Shard> shards = new ArrayList<>();
+        try {
+            for (InetSocketAddress address : addresses) {
+                shards.add(new RemoteShard(address));
+            }
+            return new ShardedLSHIndex(bands, rows, shards);
+        } catch (IOException | RuntimeException e) {
+            closeAll(shards);
+            throw e;
+        }
+    }
+
+    // Starts numShards ShardServer JVMs on this machine with the current classpath; close() stops them
+    public static ShardedLSHIndex spawn(int bands, int rows, int numShards, String... jvmOptions) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Shard> shards = new ArrayList<>();
+        try {
+            for (int i = 0; i < numShards; i++) {
+                List<String> command = new ArrayList<>();
+                command.add(java);
+                command.addAll(Arrays.asList(jvmOptions));
+                command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), "ShardServer", "0"));
+                Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                String banner = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                        StandardCharsets.UTF_8)).readLine();
+                if (banner == null || !banner.startsWith(ShardServer.BANNER)) {
+                    process.destroy();
+                    throw new IOException("Shard server " + i + " did not start: " + banner);
+                }
+                int port = Integer.parseInt(banner.substring(ShardServer.BANNER.length()).trim());
+                shards.add(new RemoteShard(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), process));
+            }
+            return new ShardedLSHIndex(bands, rows, shards);
+        } catch (IOException | RuntimeException e) {
+            closeAll(shards);
+            throw e;
+        }
+    }
+
+    public int bands() {
+        return bands;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public void insert(int id, int[] signature) throws IOException {
+        insertAll(new int[] { id }, new int[][] { signature });
+    }
+
+    // Adds or replaces the documents (ids distinct within the batch). At most three scatters, each one round
+    // trip per shard whatever the batch size: the replaced docs' signatures from their owners, the removal of
+    // their postings, and the insert. If the insert fails, the postings it may have added are removed again
+    // and the whole batch is left absent.
+    public synchronized void insertAll(int[] ids, int[][] signatures) throws IOException {
+        BitSet batch = new BitSet();
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] < 0) {
+                throw new IllegalArgumentException("Document id must be non-negative: " + ids[i]);
+            }
+            if (batch.get(ids[i])) {
+                throw new IllegalArgumentException("Document id repeated in batch: " + ids[i]);
+            }
+            batch.set(ids[i]);
+            if (signatures[i].length < bands * rows) {
+                throw new IllegalArgumentException("Signature has " + signatures[i].length + " slots, need "
+                        + bands * rows);
+            }
+        }
+        removeAll(ids);
+        long[][] keys = new long[ids.length][];
+        for (int i = 0; i < ids.length; i++) {
+            keys[i] = bandKeys(signatures[i]);
+        }
+        try {
+            scatter(shard -> {
+                long[][] local = new long[ids.length][];
+                int[][] owned = new int[ids.length][];
+                for (int i = 0; i < ids.length; i++) {
+                    local[i] = slice(keys[i], shard);
+                    owned[i] = owner(ids[i]) == shard ? signatures[i] : null;
+                }
+                shards[shard].insert(ids, local, owned);
+                return null;
+            });
+        } catch (IOException | RuntimeException e) {
+            try {
+                scatterRemove(ids, keys); // Shards skip postings the failed insert never added
+            } catch (IOException | RuntimeException rollback) {
+                e.addSuppressed(rollback);
+            }
+            throw e;
+        }
+        for (int id : ids) {
+            present.set(id);
+        }
+        size += ids.length;
+    }
+
+    public synchronized boolean remove(int id) throws IOException {
+        if (id < 0 || !present.get(id))
+            return false;
+        removeAll(new int[] { id });
+        return true;
+    }
+
+    // Removes the present docs among ids: one scatter fetches their signatures from the owners, one removes
+    // their postings everywhere. They are marked absent only once every shard has removed them; after a
+    // failure they stay present, and a retry is safe since shards skip postings already removed. An owner
+    // that got through a failed removal has dropped the signature, and a doc without one is never verified
+    // into a result.
+    private void removeAll(int[] ids) throws IOException {
+        int[][] byOwner = new int[shards.length][];
+        int[] counts = new int[shards.length];
+        int total = 0;
+        for (int id : ids) {
+            if (!present.get(id))
+                continue;
+            int owner = owner(id);
+            if (byOwner[owner] == null)
+                byOwner[owner] = new int[16];
+            if (counts[owner] == byOwner[owner].length)
+                byOwner[owner] = Arrays.copyOf(byOwner[owner], counts[owner] * 2);
+            byOwner[owner][counts[owner]++] = id;
+            total++;
+        }
+        if (total == 0)
+            return;
+        List<int[][]> found = scatter(shard -> counts[shard] == 0 ? new int[0][]
+                : shards[shard].signatures(Arrays.copyOf(byOwner[shard], counts[shard])));
+        int[] docs = new int[total];
+        long[][] keys = new long[total][];
+        int count = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            for (int i = 0; i < counts[shard]; i++) {
+                int doc = byOwner[shard][i];
+                int[] signature = found.get(shard)[i];
+                if (signature != null) { // Null only if the owner lost its state, e.g. a restarted server
+                    docs[count] = doc;
+                    keys[count++] = bandKeys(signature);
+                }
+            }
+        }
+        scatterRemove(Arrays.copyOf(docs, count), Arrays.copyOf(keys, count));
+        for (int shard = 0; shard < shards.length; shard++) {
+            for (int i = 0; i < counts[shard]; i++) {
+                present.clear(byOwner[shard][i]);
+            }
+        }
+        size -= total;
+    }
+
+    private void scatterRemove(int[] docs, long[][] keys) throws IOException {
+        if (docs.length == 0)
+            return;
+        scatter(shard -> {
+            long[][] local = new long[docs.length][];
+            for (int i = 0; i < docs.length; i++) {
+                local[i] = slice(keys[i], shard);
+            }
+            shards[shard].remove(docs, local);
+            return null;
+        });
+    }
+
+    public int[] signature(int id) throws IOException {
+        return id < 0 ? null : shards[owner(id)].signature(id);
+    }
+
+    // Same semantics as LSHIndex.query
+    public List<LSHIndex.Candidate> query(int[] signature, double threshold) throws IOException {
+        return query(signature, threshold, -1);
+    }
+
+    public List<LSHIndex.Candidate> query(int id, double threshold) throws IOException {
+        int[] signature = signature(id);
+        return signature == null ? new ArrayList<>() : query(signature, threshold, id);
+    }
+
+    private List<LSHIndex.Candidate> query(int[] signature, double threshold, int exclude) throws IOException {
+        long start = Metrics.now();
+        long[] keys = bandKeys(signature);
+        if (keys.length == 0)
+            return new ArrayList<>();
+        List<int[]> found = scatter(shard -> firstBand[shard] == firstBand[shard + 1] ? new int[0]
+                : shards[shard].candidates(slice(keys, shard)));
+
+        // Deduplicate across shards and route each candidate to the shard holding its signature
+        LongHashSet seen = new LongHashSet();
+        int[][] byOwner = new int[shards.length][16];
+        int[] counts = new int[shards.length];
+        for (int[] docs : found) {
+            for (int doc : docs) {
+                if (doc == exclude || !seen.add(doc))
+                    continue;
+                int owner = owner(doc);
+                if (counts[owner] == byOwner[owner].length)
+                    byOwner[owner] = Arrays.copyOf(byOwner[owner], counts[owner] * 2);
+                byOwner[owner][counts[owner]++] = doc;
+            }
+        }
+        List<List<LSHIndex.Candidate>> verified = scatter(shard -> {
+            List<LSHIndex.Candidate> results = new ArrayList<>();
+            if (counts[shard] == 0)
+                return results;
+            int[] docs = Arrays.copyOf(byOwner[shard], counts[shard]);
+            int[] outDocs = new int[docs.length];
+            double[] outSimilarities = new double[docs.length];
+            int count = shards[shard].verify(signature, docs, threshold, outDocs, outSimilarities);
+            for (int i = 0; i < count; i++) {
+                results.add(new LSHIndex.Candidate(outDocs[i], outSimilarities[i]));
+            }
+            return results;
+        });
+        List<LSHIndex.Candidate> results = new ArrayList<>();
+        for (List<LSHIndex.Candidate> part : verified) {
+            results.addAll(part);
+        }
+        LSHIndex.rank(results);
+        LSHIndex.recordQuery(start, seen.size(), results.size());
+        return results;
+    }
+
+    // Closes every shard (stopping spawned servers) and the scatter pool
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        closeAll(Arrays.asList(shards));
+    }
+
+    private int owner(int doc) {
+        return doc % shards.length;
+    }
+
+    // No keys for an empty set: it is stored by its owner but not bucketed
+    private long[] bandKeys(int[] signature) {
+        if (MinHashEngine.isEmpty(signature))
+            return new long[0];
+        long[] keys = new long[bands];
+        for (int band = 0; band < bands; band++) {
+            keys[band] = Banding.bandKey(signature, band, rows);
+        }
+        return keys;
+    }
+
+    private long[] slice(long[] keys, int shard) {
+        return keys.length == 0 ? keys : Arrays.copyOfRange(keys, firstBand[shard], firstBand[shard + 1]);
+    }
+
+    // Runs the call on every shard concurrently; results in shard order. The first failure is rethrown.
+    private <T> List<T> scatter(ShardCall<T> call) throws IOException {
+        List<Future<T>> futures = new ArrayList<>(shards.length);
+        for (int shard = 0; shard < shards.length; shard++) {
+            int s = shard;
+            futures.add(pool.submit(() -> call.call(s)));
+        }
+        List<T> results = new ArrayList<>(shards.length);
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for shards");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException("Shard call failed", cause);
+        }
+        return results;
+    }
+
+    private static void closeAll(List<? extends Shard> shards) throws IOException {
+        IOException failure = null;
+        for (Shard shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    // Indexes the MovieLens users in N shards (in-process, or N spawned JVMs with "spawn") and checks
+    // every query against a single LSHIndex
+    public static void main(String[] args) throws IOException {
+        int numShards = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        boolean spawn = args.length > 1 && args[1].equals("spawn");
+        int bands = 20, rows = 5;
+        double threshold = 0.5;
+        InteractionLog log = InteractionLog.load(Paths.get("u.data"));
+        int[][] signatures = ParallelPipeline.signatures(new MinHashEngine(bands * rows, 42), log);
+        int users = log.userLimit() - 1;
+        int[] ids = new int[users];
+        int[][] batch = new int[users][];
+        LSHIndex reference = new LSHIndex(bands, rows);
+        for (int user = 1; user <= users; user++) {
+            ids[user - 1] = user;
+            batch[user - 1] = signatures[user];
+            reference.insert(user, signatures[user]);
+        }
+
+        try (ShardedLSHIndex index = spawn ? spawn(bands, rows, numShards) : inProcess(bands, rows, numShards)) {
+            long start = System.nanoTime();
+            index.insertAll(ids, batch);
+            System.out.printf("Inserted %d users into %d %s shards in %.1f ms\n", index.size(), numShards,
+                    spawn ? "process" : "in-process", (System.nanoTime() - start) / 1e6);
+
+            start = System.nanoTime();
+            List<List<LSHIndex.Candidate>> sharded = new ArrayList<>();
+            long results = 0;
+            for (int user = 1; user <= users; user++) {
+                sharded.add(index.query(user, threshold));
+                results += sharded.get(user - 1).size();
+            }
+            System.out.printf("Queried %d users in %.1f ms: %d results\n", users, (System.nanoTime() - start) / 1e6,
+                    results);
+            int mismatches = 0;
+            for (int user = 1; user <= users; user++) {
+                if (!sharded.get(user - 1).toString().equals(reference.query(user, threshold).toString()))
+                    mismatches++;
+            }
+            System.out.println("Mismatches against a single LSHIndex: " + mismatches);
+        }
+        checkFailedRemoval(signatures, bands, rows, threshold);
+        Metrics.dumpIfConfigured();
+    }
+
+    // Fails one shard's part of a removal and checks the doc stays present and findable, then that a retry
+    // removes it everywhere
+    private static void checkFailedRemoval(int[][] signatures, int bands, int rows, double threshold)
+            throws IOException {
+        FailingShard failing = new FailingShard();
+        int doc = 2; // Owned by the failing shard: 2 % 2 == 0
+        try (ShardedLSHIndex index = new ShardedLSHIndex(bands, rows, Arrays.asList(failing, new ShardWorker()))) {
+            index.insert(doc, signatures[doc]);
+            failing.failRemovals = true;
+            boolean failed = false;
+            try {
+                index.remove(doc);
+            } catch (UncheckedIOException e) {
+                failed = true;
+            }
+            failing.failRemovals = false;
+            boolean kept = failed && index.size() == 1 && contains(index.query(signatures[doc], threshold), doc);
+            boolean retried = index.remove(doc) && index.size() == 0
+                    && !contains(index.query(signatures[doc], threshold), doc);
+            System.out.println("Failed shard removal keeps the doc: " + kept + ", retry removes it: " + retried);
+            if (!kept || !retried)
+                throw new IllegalStateException("Removal through a failing shard left the index inconsistent");
+        }
+    }
+
+    private static boolean contains(List<LSHIndex.Candidate> results, int doc) {
+        for (LSHIndex.Candidate candidate : results) {
+            if (candidate.id == doc)
+                return true;
+        }
+        return false;
+    }
+
+    // In-process shard whose removals can be made to fail, as a lost connection would
+    private static final class FailingShard extends ShardWorker {
+        volatile boolean failRemovals;
+
+        @Override
+        public synchronized void remove(int[] docs, long[][] keys) {
+            if (failRemovals)
+                throw new UncheckedIOException(new IOException("Injected removal failure"));
+            super.remove(docs, keys);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.Arrays;
+import java.util.List;
+
+public interface SignatureGenerator {
+    enum Scheme {
+        K_PERMUTATION,  // t independent hash functions per element
+        ONE_PERMUTATION, // one hash per element, bucketed into t bins and densified
+        WEIGHTED         // consistent weighted sampling; unit weights unless given explicitly
+    }
+
+    static SignatureGenerator create(Scheme scheme, int numHashes, long seed) {
+        switch (scheme) {
+            case ONE_PERMUTATION:
+                return new OnePermutationHash(numHashes, seed);
+            case WEIGHTED:
+                return new WeightedMinHash(numHashes, seed);
+            case K_PERMUTATION:
+            default:
+                return new MinHashEngine(numHashes, seed);
+        }
+    }
+
+    // Incremental form of signature(long[]) for shingles produced on the fly. Shingles may repeat and
+    // arrive in any order; finish() returns the signature of everything added since the last finish()
+    // and resets the state for the next document. Not thread-safe: one per thread.
+    interface Accumulator {
+        void add(long shingle);
+
+        int[] finish();
+    }
+
+    int numHashes();
+
+    // Buffers the shingles and signs the distinct set on finish(); generators with constant-size
+    // running state (MinHashEngine, OnePermutationHash) override this to keep nothing per shingle
+    default Accumulator accumulator() {
+        return new Accumulator() {
+            private long[] shingles = new long[64];
+            private int size;
+
+            @Override
+            public void add(long shingle) {
+                if (size == shingles.length)
+                    shingles = Arrays.copyOf(shingles, size * 2);
+                shingles[size++] = shingle;
+            }
+
+            @Override
+            public int[] finish() {
+                int[] signature = signature(Hashing.sortedUnique(shingles, size));
+                size = 0;
+                return signature;
+            }
+        };
+    }
+
+    int[] signature(long[] shingles);
+
+    default int[] signature(int[] items) {
+        return signature(items, 0, items.length);
+    }
+
+    // Signature of items[from, to), e.g. one user's slice of a CSR array
+    int[] signature(int[] items, int from, int to);
+
+    default int[][] signatures(List<long[]> sets) {
+        int[][] signatures = new int[sets.size()][];
+        for (int i = 0; i < sets.size(); i++) {
+            signatures[i] = signature(sets.get(i));
+        }
+        return signatures;
+    }
+}
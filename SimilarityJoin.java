@@ -0,0 +1,154 @@
+import java.util.Arrays;
+
+// Exact all-pairs Jaccard join (PPJoin): records are re-encoded by a global rare-first item order,
+// only prefixes are indexed, and candidates survive length and positional filters before verification
+public final class SimilarityJoin {
+    private static final Metrics.Timer JOIN = Metrics.timer("join");
+    private static final Metrics.Counter JOIN_CANDIDATES = Metrics.counter("join.candidates");
+    private static final Metrics.Counter JOIN_PAIRS = Metrics.counter("join.pairs");
+
+    static {
+        Metrics.ratio("join.hit_ratio", "join.pairs", "join.candidates");
+    }
+    public interface PairConsumer {
+        void accept(int user1, int user2, double jaccard);
+    }
+
+    private SimilarityJoin() {
+    }
+
+    // Every pair of non-empty users with Jaccard >= threshold, reported with user1 < user2
+    public static void join(InteractionLog log, double threshold, PairConsumer consumer) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("Threshold must be in (0, 1]: " + threshold);
+        }
+        long start = Metrics.now();
+        int[] rank = frequencyRanks(log);
+
+        // Records sorted by size, each re-encoded as ascending ranks
+        int users = log.userLimit();
+        int[] order = new int[users];
+        int count = 0;
+        for (int user = 0; user < users; user++) {
+            if (log.size(user) > 0)
+                order[count++] = user;
+        }
+        Integer[] boxed = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            boxed[i] = order[i];
+        }
+        Arrays.sort(boxed, (u1, u2) -> log.size(u1) != log.size(u2)
+                ? Integer.compare(log.size(u1), log.size(u2))
+                : Integer.compare(u1, u2));
+        int[] offsets = new int[count + 1];
+        for (int r = 0; r < count; r++) {
+            order[r] = boxed[r];
+            offsets[r + 1] = offsets[r] + log.size(order[r]);
+        }
+        int[] tokens = new int[offsets[count]];
+        int[] items = log.items();
+        for (int r = 0; r < count; r++) {
+            int user = order[r];
+            for (int i = log.start(user), k = offsets[r]; i < log.end(user); i++, k++) {
+                tokens[k] = rank[items[i]];
+            }
+            Arrays.sort(tokens, offsets[r], offsets[r + 1]);
+        }
+
+        // Inverted index over mid-prefix tokens: interleaved (record, position) postings per token
+        int[][] postings = new int[rank.length][];
+        int[] postingSizes = new int[rank.length];
+        int[] postingStarts = new int[rank.length]; // Entries before this are too short for any later record
+        int[] overlap = new int[count];
+        int[] touched = new int[count];
+
+        for (int x = 0; x < count; x++) {
+            int xFrom = offsets[x], xSize = offsets[x + 1] - xFrom;
+            int minSize = (int) Math.ceil(threshold * xSize - 1e-9);
+            int probePrefix = xSize - minSize + 1;
+            int touchedCount = 0;
+
+            for (int i = 0; i < probePrefix; i++) {
+                int token = tokens[xFrom + i];
+                int[] list = postings[token];
+                for (int p = postingStarts[token]; p < postingSizes[token]; p += 2) {
+                    int y = list[p], j = list[p + 1];
+                    int ySize = offsets[y + 1] - offsets[y];
+                    if (ySize < minSize) {
+                        postingStarts[token] = p + 2; // Record sizes only grow, so y never qualifies again
+                        continue;
+                    }
+                    if (overlap[y] < 0)
+                        continue;
+                    int required = JaccardVerifier.requiredOverlap(xSize, ySize, threshold);
+                    int bound = overlap[y] + 1 + Math.min(xSize - i - 1, ySize - j - 1);
+                    if (bound < required) {
+                        if (overlap[y] == 0)
+                            touched[touchedCount++] = y;
+                        overlap[y] = -1; // Positional filter: pruned for this probe
+                        continue;
+                    }
+                    if (overlap[y] == 0)
+                        touched[touchedCount++] = y;
+                    overlap[y]++;
+                }
+            }
+
+            for (int c = 0; c < touchedCount; c++) {
+                int y = touched[c];
+                if (overlap[y] > 0) {
+                    JOIN_CANDIDATES.increment();
+                    if (JaccardVerifier.passes(tokens, xFrom, offsets[x + 1],
+                            tokens, offsets[y], offsets[y + 1], threshold)) {
+                        JOIN_PAIRS.increment();
+                        int user1 = Math.min(order[x], order[y]), user2 = Math.max(order[x], order[y]);
+                        consumer.accept(user1, user2, JaccardVerifier.jaccard(tokens, xFrom, offsets[x + 1],
+                                tokens, offsets[y], offsets[y + 1]));
+                    }
+                }
+                overlap[y] = 0;
+            }
+
+            int indexPrefix = xSize - (int) Math.ceil(2 * threshold / (1 + threshold) * xSize - 1e-9) + 1;
+            for (int i = 0; i < indexPrefix; i++) {
+                int token = tokens[xFrom + i];
+                if (postings[token] == null) {
+                    postings[token] = new int[8];
+                } else if (postingSizes[token] + 2 > postings[token].length) {
+                    postings[token] = Arrays.copyOf(postings[token], postings[token].length * 2);
+                }
+                postings[token][postingSizes[token]++] = x;
+                postings[token][postingSizes[token]++] = i;
+            }
+        }
+        JOIN.record(start, count);
+    }
+
+    // Packed (user1, user2) pairs, as produced by Banding.pair, for comparison against LSH candidates
+    public static LongHashSet pairs(InteractionLog log, double threshold) {
+        LongHashSet pairs = new LongHashSet();
+        join(log, threshold, (user1, user2, jaccard) -> pairs.add(Banding.pair(user1, user2)));
+        return pairs;
+    }
+
+    // Rank 0 is the rarest item, so prefixes hold the most selective tokens
+    private static int[] frequencyRanks(InteractionLog log) {
+        int itemLimit = log.itemLimit();
+        int[] frequency = new int[itemLimit];
+        for (int item : log.items()) {
+            frequency[item]++;
+        }
+        Integer[] byFrequency = new Integer[itemLimit];
+        for (int item = 0; item < itemLimit; item++) {
+            byFrequency[item] = item;
+        }
+        Arrays.sort(byFrequency, (i1, i2) -> frequency[i1] != frequency[i2]
+                ? Integer.compare(frequency[i1], frequency[i2])
+                : Integer.compare(i1, i2));
+        int[] rank = new int[itemLimit];
+        for (int r = 0; r < itemLimit; r++) {
+            rank[byFrequency[r]] = r;
+        }
+        return rank;
+    }
+}
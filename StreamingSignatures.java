@@ -0,0 +1,33 @@
+import java.util.Arrays;
+
+// Per-user MinHash signatures maintained as interactions arrive, without keeping the item sets
+public class StreamingSignatures implements InteractionLog.Consumer {
+    private final MinHashEngine engine;
+    private int[][] signatures = new int[1024][];
+    private int userLimit;
+
+    public StreamingSignatures(MinHashEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public void accept(int user, int item) {
+        if (user >= signatures.length) {
+            signatures = Arrays.copyOf(signatures, Math.max(user + 1, signatures.length * 2));
+        }
+        if (signatures[user] == null) {
+            signatures[user] = engine.emptySignature();
+        }
+        engine.update(signatures[user], item);
+        userLimit = Math.max(userLimit, user + 1);
+    }
+
+    public int userLimit() {
+        return userLimit;
+    }
+
+    // Live signature of the user (updated in place by later interactions), or null if unseen
+    public int[] signature(int user) {
+        return user < signatures.length ? signatures[user] : null;
+    }
+}
@@ -0,0 +1,91 @@
+// Bounded min-heap over primitive (id, score) entries keeping the k best: higher score first, then lower id.
+// Reused across queries via clear(), so ranking allocates nothing per candidate.
+public final class TopKHeap {
+    private final int capacity;
+    private final int[] ids;
+    private final double[] scores;
+    private int size;
+
+    public TopKHeap(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Heap capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.ids = new int[capacity];
+        this.scores = new double[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    // Keeps the entry if the heap has room or it beats the current worst; returns whether it was kept
+    public boolean offer(int id, double score) {
+        if (size < capacity) {
+            ids[size] = id;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (!better(id, score, ids[0], scores[0]))
+            return false;
+        ids[0] = id;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    // Empties the heap into the arrays, best first; returns the entry count
+    public int drain(int[] outIds, double[] outScores) {
+        int count = size;
+        for (int i = count - 1; i >= 0; i--) {
+            outIds[i] = ids[0];
+            outScores[i] = scores[0];
+            ids[0] = ids[--size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return count;
+    }
+
+    private static boolean better(int id1, double score1, int id2, double score2) {
+        return score1 != score2 ? score1 > score2 : id1 < id2;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(ids[parent], scores[parent], ids[i], scores[i]))
+                return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int worst = i, left = 2 * i + 1, right = left + 1;
+            if (left < size && better(ids[worst], scores[worst], ids[left], scores[left]))
+                worst = left;
+            if (right < size && better(ids[worst], scores[worst], ids[right], scores[right]))
+                worst = right;
+            if (worst == i)
+                return;
+            swap(i, worst);
+            i = worst;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        double score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Improved consistent weighted sampling (Ioffe, ICWS): slot j holds the hashed sample (k*, t*), so two
+// weighted sets agree on a slot with probability equal to their weighted Jaccard sum(min) / sum(max).
+// Signatures are plain int[] and work with Banding, LSHIndex and MinHashEngine.estimateJaccard.
+public class WeightedMinHash implements SignatureGenerator {
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+    private static final double UNIT = 0x1.0p-53;
+
+    private final long[] seeds;
+    // Optional per-(item, slot) draws for dense item ids below tableItems, item-major: {r, 1 / r, ln c, beta}
+    private double[] table;
+    private int tableItems;
+
+    public WeightedMinHash(int numHashes, long seed) {
+        SplittableRandom rand = new SplittableRandom(seed);
+        seeds = new long[numHashes];
+        for (int j = 0; j < numHashes; j++) {
+            seeds[j] = rand.nextLong();
+        }
+    }
+
+    // Precomputes the random draws of items [0, itemLimit), leaving a floor, a multiply and a compare
+    // per (rating, slot); costs 32 * itemLimit * numHashes bytes, so meant for catalogs, not shingle spaces
+    public WeightedMinHash withItemTable(int itemLimit) {
+        int numHashes = seeds.length;
+        if ((long) itemLimit * numHashes * 4 > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Item table too large: " + itemLimit + " items x " + numHashes + " slots");
+        }
+        double[] draws = new double[itemLimit * numHashes * 4];
+        for (int item = 0; item < itemLimit; item++) {
+            for (int j = 0; j < numHashes; j++) {
+                int base = (item * numHashes + j) * 4;
+                long h1 = Hashing.mix64(seeds[j] ^ (item * GOLDEN)), h2 = next(h1), h3 = next(h2), h4 = next(h3);
+                draws[base] = -Math.log(uniform(h1) * uniform(h2));
+                draws[base + 1] = 1 / draws[base];
+                draws[base + 2] = Math.log(-Math.log(uniform(h3) * uniform(h4)));
+                draws[base + 3] = uniform(next(h4));
+            }
+        }
+        table = draws;
+        tableItems = itemLimit;
+        return this;
+    }
+
+    @Override
+    public int numHashes() {
+        return seeds.length;
+    }
+
+    // Unit weights: the signature then estimates plain Jaccard
+    @Override
+    public int[] signature(long[] shingles) {
+        return sample(shingles, null, null, 0, shingles.length);
+    }
+
+    @Override
+    public int[] signature(int[] items, int from, int to) {
+        return sample(null, items, null, from, to);
+    }
+
+    // items[from, to) with weights[from, to), e.g. a user's ratings; non-positive weights are ignored
+    public int[] signature(int[] items, int[] weights, int from, int to) {
+        return sample(null, items, weights, from, to);
+    }
+
+    // For each slot, the element minimizing ln a = ln c - r * (t - beta + 1), with t = floor(ln w / r + beta).
+    // r, c ~ Gamma(2, 1) and beta ~ U(0, 1) are drawn from a hash of (slot seed, element), so every set
+    // sees the same randomness for the same element; working in the log domain saves the exp per pair
+    private int[] sample(long[] shingles, int[] items, int[] weights, int from, int to) {
+        int numHashes = seeds.length;
+        double[] best = new double[numHashes];
+        long[] elements = new long[numHashes];
+        long[] ts = new long[numHashes];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+        for (int i = from; i < to; i++) {
+            long element = shingles != null ? shingles[i] : items[i] & 0xFFFFFFFFL;
+            double weight = weights != null ? weights[i] : 1;
+            if (weight <= 0)
+                continue;
+            double logWeight = Math.log(weight);
+            if (shingles == null && element < tableItems) {
+                int base = (int) element * numHashes * 4;
+                for (int j = 0; j < numHashes; j++, base += 4) {
+                    double r = table[base], beta = table[base + 3];
+                    double t = Math.floor(logWeight * table[base + 1] + beta);
+                    double logA = table[base + 2] - r * (t - beta + 1);
+                    if (logA < best[j]) {
+                        best[j] = logA;
+                        elements[j] = element;
+                        ts[j] = (long) t;
+                    }
+                }
+                continue;
+            }
+            for (int j = 0; j < numHashes; j++) {
+                long h1 = Hashing.mix64(seeds[j] ^ (element * GOLDEN)), h2 = next(h1), h3 = next(h2), h4 = next(h3);
+                double r = -Math.log(uniform(h1) * uniform(h2));
+                double logC = Math.log(-Math.log(uniform(h3) * uniform(h4)));
+                double beta = uniform(next(h4));
+                double t = Math.floor(logWeight / r + beta);
+                double logA = logC - r * (t - beta + 1);
+                if (logA < best[j]) {
+                    best[j] = logA;
+                    elements[j] = element;
+                    ts[j] = (long) t;
+                }
+            }
+        }
+        int[] signature = new int[numHashes];
+        for (int j = 0; j < numHashes; j++) {
+            signature[j] = best[j] == Double.POSITIVE_INFINITY ? MinHashEngine.EMPTY_SLOT
+                    : MinHashEngine.slot(Hashing.mix64(Hashing.mix64(elements[j] ^ seeds[j]) + ts[j]) & 0xFFFFFFFFL);
+        }
+        return signature;
+    }
+
+    private static long next(long h) {
+        return Hashing.mix64(h + GOLDEN);
+    }
+
+    // Uniform in the open interval (0, 1), so logarithms and r stay finite and non-zero
+    private static double uniform(long bits) {
+        return ((bits >>> 11) + 0.5) * UNIT;
+    }
+}
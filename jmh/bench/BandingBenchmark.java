@@ -0,0 +1,60 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Band-table construction and candidate generation, the stages behind LSH.performLSH and LSHMovieLens.performLSH
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BandingBenchmark {
+    private static final MethodHandle SIGNATURES = Repo.staticMethod("ParallelPipeline", "signatures", int[][].class,
+            "SignatureGenerator", java.util.List.class);
+    private static final MethodHandle BUILD_TABLES = Repo.staticMethod("Banding", "buildTables", "BandTable[]",
+            int[][].class, int.class, int.class, int.class, int.class);
+    private static final MethodHandle CANDIDATE_PAIRS = Repo.staticMethod("Banding", "candidatePairs", "LongHashSet",
+            "BandTable[]");
+    private static final MethodHandle PARALLEL_BUILD_TABLES = Repo.staticMethod("ParallelPipeline", "buildTables",
+            "BandTable[]", int[][].class, int.class, int.class, int.class, int.class);
+    private static final MethodHandle PARALLEL_CANDIDATE_PAIRS = Repo.staticMethod("ParallelPipeline",
+            "candidatePairs", "LongHashSet", "BandTable[]");
+
+    // bands x rows
+    @Param({ "20x5", "40x5", "20x10", "8x20" })
+    String banding;
+
+    @Param({ "1000", "10000", "100000" })
+    int corpusSize;
+
+    int bands;
+    int rows;
+    int[][] signatures;
+
+    @Setup
+    public void setup() throws Throwable {
+        String[] parts = banding.split("x");
+        bands = Integer.parseInt(parts[0]);
+        rows = Integer.parseInt(parts[1]);
+        Object generator = SignatureBenchmark.CREATE.invokeExact(
+                SignatureBenchmark.SCHEME_VALUE_OF.invokeExact("K_PERMUTATION"), bands * rows, 42L);
+        // Chains of 80%-overlapping sets, so buckets hold real collisions
+        java.util.List<long[]> sets = java.util.Arrays.asList(SyntheticData.shingleSets(corpusSize, 200, 0.8, 42));
+        signatures = (int[][]) SIGNATURES.invokeExact(generator, sets);
+    }
+
+    @Benchmark
+    public Object sequential() throws Throwable {
+        Object tables = BUILD_TABLES.invokeExact(signatures, 0, corpusSize, bands, rows);
+        return CANDIDATE_PAIRS.invokeExact(tables);
+    }
+
+    @Benchmark
+    public Object parallel() throws Throwable {
+        Object tables = PARALLEL_BUILD_TABLES.invokeExact(signatures, 0, corpusSize, bands, rows);
+        return PARALLEL_CANDIDATE_PAIRS.invokeExact(tables);
+    }
+}
@@ -0,0 +1,83 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.*;
+
+// Query latency distribution while one writer ingests continuously; compare the query percentiles of
+// the `ingest` group with the reader-only `idle` group
+@State(Scope.Group)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentIndexBenchmark {
+    private static final int BANDS = 20;
+    private static final int ROWS = 5;
+    private static final MethodHandle NEW_INDEX = Repo.constructor("ConcurrentLSHIndex", int.class, int.class);
+    private static final MethodHandle INSERT = Repo.virtualMethod("ConcurrentLSHIndex", "insert", void.class,
+            int.class, int[].class);
+    private static final MethodHandle QUERY = Repo.virtualMethod("ConcurrentLSHIndex", "query", List.class,
+            int[].class, double.class);
+    private static final MethodHandle SIGNATURES = Repo.staticMethod("ParallelPipeline", "signatures", int[][].class,
+            "SignatureGenerator", int[][].class);
+
+    @Param({ "10000", "100000" })
+    int corpusSize;
+
+    Object index;
+    int[][] signatures;
+    final AtomicInteger nextInsert = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setup() throws Throwable {
+        Object generator = SignatureBenchmark.CREATE.invokeExact(
+                SignatureBenchmark.SCHEME_VALUE_OF.invokeExact("K_PERMUTATION"), BANDS * ROWS, 42L);
+        int[][] sets = new int[corpusSize][];
+        java.util.SplittableRandom rand = new java.util.SplittableRandom(42);
+        for (int doc = 0; doc < corpusSize; doc++) {
+            sets[doc] = SyntheticData.itemSet(100, 1 << 16, rand);
+        }
+        signatures = (int[][]) SIGNATURES.invokeExact(generator, sets);
+        index = NEW_INDEX.invokeExact(BANDS, ROWS);
+        // Half the corpus up front; the writer keeps re-inserting the rest, cycling through ids
+        for (int doc = 0; doc < corpusSize / 2; doc++) {
+            INSERT.invokeExact(index, doc, signatures[doc]);
+        }
+    }
+
+    @Benchmark
+    @Group("ingest")
+    @GroupThreads(1)
+    public void write() throws Throwable {
+        int doc = corpusSize / 2 + Math.floorMod(nextInsert.getAndIncrement(), corpusSize - corpusSize / 2);
+        INSERT.invokeExact(index, doc, signatures[doc]);
+    }
+
+    @Benchmark
+    @Group("ingest")
+    @GroupThreads(3)
+    public List<?> read(Cursor cursor) throws Throwable {
+        return query(cursor);
+    }
+
+    @Benchmark
+    @Group("idle")
+    @GroupThreads(3)
+    public List<?> readOnly(Cursor cursor) throws Throwable {
+        return query(cursor);
+    }
+
+    private List<?> query(Cursor cursor) throws Throwable {
+        int[] signature = signatures[cursor.next++ % corpusSize];
+        return (List<?>) QUERY.invokeExact(index, signature, 0.5);
+    }
+}
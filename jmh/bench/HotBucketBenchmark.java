@@ -0,0 +1,84 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Candidate generation over one oversized bucket under each HotBucketPolicy mode. The corpus is random
+// except for `hot` docs sharing band 0, i.e. one bucket of `hot` docs; the pair count per policy is
+// printed once from setup, next to the timings.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HotBucketBenchmark {
+    private static final int BANDS = 20;
+    private static final int ROWS = 5;
+    private static final int SPARE_ROWS = 5;
+    private static final int LIMIT = 64; // LSHMovieLens.HOT_BUCKET_LIMIT
+    private static final int SPARE_VALUES = 64; // Spare rows of hot docs repeat, so sub-buckets hold pairs too
+    private static final MethodHandle BUILD_TABLES = Repo.staticMethod("Banding", "buildTables", "BandTable[]",
+            int[][].class, int.class, int.class, int.class, int.class);
+    private static final MethodHandle CANDIDATE_PAIRS = Repo.staticMethod("Banding", "candidatePairs", "LongHashSet",
+            "BandTable[]", int[][].class, int.class, "HotBucketPolicy");
+    private static final MethodHandle CAP = Repo.staticMethod("HotBucketPolicy", "cap", "HotBucketPolicy", int.class);
+    private static final MethodHandle SAMPLE = Repo.staticMethod("HotBucketPolicy", "sample", "HotBucketPolicy",
+            int.class, long.class);
+    private static final MethodHandle SUB_BAND = Repo.staticMethod("HotBucketPolicy", "subBand", "HotBucketPolicy",
+            int.class, int.class, long.class);
+    private static final MethodHandle PAIR_COUNT = Repo.virtualMethod("LongHashSet", "size", int.class);
+
+    @Param({ "unbounded", "cap", "sample", "subBand" })
+    String policyName;
+
+    @Param({ "10000" })
+    int corpusSize;
+
+    @Param({ "3000" })
+    int hot;
+
+    int[][] signatures;
+    Object tables;
+    Object policy;
+
+    @Setup
+    public void setup() throws Throwable {
+        SplittableRandom rand = new SplittableRandom(42);
+        signatures = new int[corpusSize][BANDS * ROWS + SPARE_ROWS];
+        for (int doc = 0; doc < corpusSize; doc++) {
+            for (int slot = 0; slot < signatures[doc].length; slot++) {
+                signatures[doc][slot] = doc < hot && slot >= BANDS * ROWS ? rand.nextInt(SPARE_VALUES) : rand.nextInt();
+            }
+            if (doc < hot)
+                System.arraycopy(signatures[0], 0, signatures[doc], 0, ROWS);
+        }
+        tables = BUILD_TABLES.invokeExact(signatures, 0, corpusSize, BANDS, ROWS);
+        switch (policyName) {
+            case "cap":
+                policy = CAP.invokeExact(LIMIT);
+                break;
+            case "sample":
+                policy = SAMPLE.invokeExact(LIMIT, 0L);
+                break;
+            case "subBand":
+                policy = SUB_BAND.invokeExact(LIMIT, 1, 0L);
+                break;
+            default:
+                policy = Class.forName("HotBucketPolicy").getField("UNBOUNDED").get(null);
+        }
+        int pairs = (int) PAIR_COUNT.invokeExact(generate());
+        System.out.println(policy + ": " + pairs + " candidate pairs");
+    }
+
+    @Benchmark
+    public Object candidatePairs() throws Throwable {
+        return generate();
+    }
+
+    private Object generate() throws Throwable {
+        return CANDIDATE_PAIRS.invokeExact(tables, signatures, ROWS, policy);
+    }
+}
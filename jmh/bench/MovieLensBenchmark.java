@@ -0,0 +1,54 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Corpus-level stages of MovieLens over synthetic interaction logs
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MovieLensBenchmark {
+    private static final MethodHandle NEW_BUILDER = Repo.constructor("InteractionLog$Builder");
+    private static final MethodHandle ACCEPT = Repo.virtualMethod("InteractionLog$Builder", "accept", void.class,
+            int.class, int.class);
+    private static final MethodHandle BUILD = Repo.virtualMethod("InteractionLog$Builder", "build",
+            "InteractionLog");
+    private static final MethodHandle LOG_SIGNATURES = Repo.staticMethod("ParallelPipeline", "signatures",
+            int[][].class, "SignatureGenerator", "InteractionLog");
+    private static final MethodHandle JOIN_PAIRS = Repo.staticMethod("SimilarityJoin", "pairs", "LongHashSet",
+            "InteractionLog", double.class);
+
+    @Param({ "943", "10000" })
+    int users;
+
+    @Param({ "50", "200" })
+    int numHashes;
+
+    Object log;
+    Object generator;
+
+    @Setup
+    public void setup() throws Throwable {
+        Object builder = NEW_BUILDER.invokeExact();
+        for (int[] pair : SyntheticData.interactions(users, 1682, 106, 42)) {
+            ACCEPT.invokeExact(builder, pair[0], pair[1]);
+        }
+        log = BUILD.invokeExact(builder);
+        generator = SignatureBenchmark.CREATE.invokeExact(
+                SignatureBenchmark.SCHEME_VALUE_OF.invokeExact("K_PERMUTATION"), numHashes, 42L);
+    }
+
+    @Benchmark
+    public int[][] signatures() throws Throwable {
+        return (int[][]) LOG_SIGNATURES.invokeExact(generator, log);
+    }
+
+    @Benchmark
+    public Object similarityJoin() throws Throwable {
+        return JOIN_PAIRS.invokeExact(log, 0.5);
+    }
+}
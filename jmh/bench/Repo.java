@@ -0,0 +1,77 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// The project classes live in the default package, which named packages cannot import and JMH
+// refuses to host benchmarks in. Handles are resolved once into static finals, where the JIT inlines
+// them like direct calls; project types are erased to Object at the call site.
+final class Repo {
+    private Repo() {
+    }
+
+    static MethodHandle staticMethod(String owner, String name, Object returnType, Object... paramTypes) {
+        try {
+            Class<?> cls = Class.forName(owner);
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(cls, MethodHandles.lookup());
+            MethodHandle handle = lookup.findStatic(cls, name, MethodType.methodType(type(returnType), types(paramTypes)));
+            return handle.asType(MethodType.methodType(erased(returnType), erasedAll(paramTypes)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot resolve " + owner + "." + name, e);
+        }
+    }
+
+    static MethodHandle virtualMethod(String owner, String name, Object returnType, Object... paramTypes) {
+        try {
+            Class<?> cls = Class.forName(owner);
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(cls, MethodHandles.lookup());
+            MethodHandle handle = lookup.findVirtual(cls, name, MethodType.methodType(type(returnType), types(paramTypes)));
+            return handle.asType(MethodType.methodType(erased(returnType), erasedAll(paramTypes))
+                    .insertParameterTypes(0, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot resolve " + owner + "." + name, e);
+        }
+    }
+
+    static MethodHandle constructor(String owner, Object... paramTypes) {
+        try {
+            Class<?> cls = Class.forName(owner);
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(cls, MethodHandles.lookup());
+            MethodHandle handle = lookup.findConstructor(cls, MethodType.methodType(void.class, types(paramTypes)));
+            return handle.asType(MethodType.methodType(Object.class, erasedAll(paramTypes)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot resolve " + owner + " constructor", e);
+        }
+    }
+
+    // A Class, or the name of a project class (arrays as "BandTable[]")
+    private static Class<?> type(Object t) throws ClassNotFoundException {
+        if (t instanceof Class) {
+            return (Class<?>) t;
+        }
+        String name = (String) t;
+        return name.endsWith("[]") ? Class.forName("[L" + name.substring(0, name.length() - 2) + ";")
+                : Class.forName(name);
+    }
+
+    private static Class<?>[] types(Object[] ts) throws ClassNotFoundException {
+        Class<?>[] classes = new Class<?>[ts.length];
+        for (int i = 0; i < ts.length; i++) {
+            classes[i] = type(ts[i]);
+        }
+        return classes;
+    }
+
+    private static Class<?> erased(Object t) {
+        return t instanceof Class ? (Class<?>) t : Object.class;
+    }
+
+    private static Class<?>[] erasedAll(Object[] ts) {
+        Class<?>[] classes = new Class<?>[ts.length];
+        for (int i = 0; i < ts.length; i++) {
+            classes[i] = erased(ts[i]);
+        }
+        return classes;
+    }
+}
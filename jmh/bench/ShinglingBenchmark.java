@@ -0,0 +1,56 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShinglingBenchmark {
+    private static final MethodHandle GENERATE_KGRAMS =
+            Repo.staticMethod("KGramJaccard", "generateKGrams", Set.class, String.class, int.class);
+    private static final MethodHandle GENERATE_WORD_KGRAMS =
+            Repo.staticMethod("KGramJaccard", "generateWordKGrams", Set.class, String.class, int.class);
+    private static final MethodHandle GENERATE_HASHED_KGRAMS =
+            Repo.staticMethod("KGramJaccard", "generateHashedKGrams", long[].class, CharSequence.class, int.class);
+    private static final MethodHandle GENERATE_HASHED_WORD_KGRAMS =
+            Repo.staticMethod("KGramJaccard", "generateHashedWordKGrams", long[].class, CharSequence.class, int.class);
+
+    @Param({ "1000", "100000" })
+    int docLength;
+
+    @Param({ "2", "3" })
+    int k;
+
+    String text;
+
+    @Setup
+    public void setup() {
+        text = SyntheticData.text(docLength, 42);
+    }
+
+    @Benchmark
+    public Set<?> stringKGrams() throws Throwable {
+        return (Set<?>) GENERATE_KGRAMS.invokeExact(text, k);
+    }
+
+    @Benchmark
+    public Set<?> stringWordKGrams() throws Throwable {
+        return (Set<?>) GENERATE_WORD_KGRAMS.invokeExact(text, k);
+    }
+
+    @Benchmark
+    public long[] hashedKGrams() throws Throwable {
+        return (long[]) GENERATE_HASHED_KGRAMS.invokeExact((CharSequence) text, k);
+    }
+
+    @Benchmark
+    public long[] hashedWordKGrams() throws Throwable {
+        return (long[]) GENERATE_HASHED_WORD_KGRAMS.invokeExact((CharSequence) text, k);
+    }
+}
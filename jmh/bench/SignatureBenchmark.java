@@ -0,0 +1,44 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// One document's signature, as MinHash and LSH compute per shingle set
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureBenchmark {
+    static final MethodHandle SCHEME_VALUE_OF = Repo.staticMethod("SignatureGenerator$Scheme", "valueOf",
+            "SignatureGenerator$Scheme", String.class);
+    static final MethodHandle CREATE = Repo.staticMethod("SignatureGenerator", "create", "SignatureGenerator",
+            "SignatureGenerator$Scheme", int.class, long.class);
+    private static final MethodHandle SIGNATURE =
+            Repo.virtualMethod("SignatureGenerator", "signature", int[].class, long[].class);
+
+    @Param({ "50", "200", "600" })
+    int numHashes;
+
+    @Param({ "100", "1000", "10000" })
+    int setSize;
+
+    @Param({ "K_PERMUTATION", "ONE_PERMUTATION", "WEIGHTED" })
+    String scheme;
+
+    Object generator;
+    long[] shingles;
+
+    @Setup
+    public void setup() throws Throwable {
+        generator = CREATE.invokeExact(SCHEME_VALUE_OF.invokeExact(scheme), numHashes, 42L);
+        shingles = SyntheticData.shingleSets(1, setSize, 0, 42)[0];
+    }
+
+    @Benchmark
+    public int[] signature() throws Throwable {
+        return (int[]) SIGNATURE.invokeExact(generator, shingles);
+    }
+}
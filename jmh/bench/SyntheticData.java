@@ -0,0 +1,64 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// Seeded generators so every fork benchmarks the same corpus
+final class SyntheticData {
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyz";
+
+    private SyntheticData() {
+    }
+
+    // Lowercase words of 2-9 letters separated by single spaces, like the normalized D*.txt inputs
+    static String text(int length, long seed) {
+        SplittableRandom rand = new SplittableRandom(seed);
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            int word = 2 + rand.nextInt(8);
+            for (int i = 0; i < word && sb.length() < length; i++) {
+                sb.append(ALPHABET.charAt(rand.nextInt(ALPHABET.length())));
+            }
+            if (sb.length() < length)
+                sb.append(' ');
+        }
+        return sb.toString();
+    }
+
+    // Sorted, distinct shingle hashes; consecutive sets share about `overlap` of their elements
+    static long[][] shingleSets(int count, int size, double overlap, long seed) {
+        SplittableRandom rand = new SplittableRandom(seed);
+        long[][] sets = new long[count][];
+        long[] previous = null;
+        for (int s = 0; s < count; s++) {
+            long[] set = new long[size];
+            for (int i = 0; i < size; i++) {
+                set[i] = previous != null && rand.nextDouble() < overlap ? previous[i] : rand.nextLong();
+            }
+            previous = set.clone();
+            Arrays.sort(set);
+            sets[s] = Arrays.stream(set).distinct().toArray();
+        }
+        return sets;
+    }
+
+    // Sorted, distinct item ids in [0, universe)
+    static int[] itemSet(int size, int universe, SplittableRandom rand) {
+        return rand.ints(size * 2L, 0, universe).distinct().limit(size).sorted().toArray();
+    }
+
+    // (user, item) interactions with skewed item popularity, MovieLens-like density
+    static int[][] interactions(int users, int items, int perUser, long seed) {
+        SplittableRandom rand = new SplittableRandom(seed);
+        int[][] pairs = new int[users * perUser][];
+        int n = 0;
+        for (int user = 1; user <= users; user++) {
+            for (int i = 0; i < perUser; i++) {
+                double u = rand.nextDouble();
+                int item = 1 + (int) (items * u * u); // Quadratic skew toward low ids
+                pairs[n++] = new int[] { user, item };
+            }
+        }
+        return pairs;
+    }
+}
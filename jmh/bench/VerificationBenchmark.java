@@ -0,0 +1,64 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Exact Jaccard verification of one candidate pair
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VerificationBenchmark {
+    private static final int UNIVERSE = 1 << 20;
+    private static final MethodHandle INTERSECTION_SIZE = Repo.staticMethod("JaccardVerifier", "intersectionSize",
+            int.class, int[].class, int.class, int.class, int[].class, int.class, int.class);
+    private static final MethodHandle PASSES = Repo.staticMethod("JaccardVerifier", "passes", boolean.class,
+            int[].class, int.class, int.class, int[].class, int.class, int.class, double.class);
+    private static final MethodHandle TO_BITSET = Repo.staticMethod("JaccardVerifier", "toBitset", long[].class,
+            int[].class, int.class, int.class, int.class);
+    private static final MethodHandle BITSET_INTERSECTION_SIZE = Repo.staticMethod("JaccardVerifier",
+            "bitsetIntersectionSize", int.class, long[].class, long[].class);
+
+    @Param({ "100", "1000" })
+    int size;
+
+    // Size ratio of the larger set to the smaller; large ratios take the galloping path
+    @Param({ "1", "100" })
+    int skew;
+
+    @Param({ "0.5", "0.8" })
+    double threshold;
+
+    int[] small;
+    int[] large;
+    long[] smallBits;
+    long[] largeBits;
+
+    @Setup
+    public void setup() throws Throwable {
+        SplittableRandom rand = new SplittableRandom(42);
+        small = SyntheticData.itemSet(size, UNIVERSE, rand);
+        large = SyntheticData.itemSet(size * skew, UNIVERSE, rand);
+        smallBits = (long[]) TO_BITSET.invokeExact(small, 0, small.length, UNIVERSE);
+        largeBits = (long[]) TO_BITSET.invokeExact(large, 0, large.length, UNIVERSE);
+    }
+
+    @Benchmark
+    public int intersection() throws Throwable {
+        return (int) INTERSECTION_SIZE.invokeExact(small, 0, small.length, large, 0, large.length);
+    }
+
+    @Benchmark
+    public boolean thresholdCheck() throws Throwable {
+        return (boolean) PASSES.invokeExact(small, 0, small.length, large, 0, large.length, threshold);
+    }
+
+    @Benchmark
+    public int bitsetIntersection() throws Throwable {
+        return (int) BITSET_INTERSECTION_SIZE.invokeExact(smallBits, largeBits);
+    }
+}